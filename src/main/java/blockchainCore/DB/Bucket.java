@@ -1,22 +1,103 @@
 package blockchainCore.DB;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+// keys are raw bytes kept in unsigned lexicographic order, string keys are stored as their utf-8 bytes.
+// single operations share the db lock, a WriteBatch holds it exclusively while it is applied.
+// in a persistent db every mutation is a batch, so that it reaches the write-ahead log.
 public class Bucket {
-    private ConcurrentHashMap<String, byte[]> db = new ConcurrentHashMap<>();
+    public static final Comparator<byte[]> KEY_ORDER = Bucket::compare;
 
-    public void put(String key, byte[] value){
-        db.put(key ,value);
+    private ConcurrentSkipListMap<byte[], byte[]> db = new ConcurrentSkipListMap<>(KEY_ORDER);
+    protected final ReadWriteLock lock;
+    private final String name;
+    private final Db owner;
+
+    public Bucket() {
+        this.lock = new ReentrantReadWriteLock();
+        this.name = null;
+        this.owner = null;
+    }
+    public Bucket(String name, Db owner) {
+        this.lock = owner.getLock();
+        this.name = name;
+        this.owner = owner;
+    }
+
+    public void put(byte[] key, byte[] value){
+        if (logged()) { owner.write(owner.newBatch().put(name, key, value), false); return; }
+        lock.readLock().lock();
+        try { doPut(key, value); } finally { lock.readLock().unlock(); }
+    }
+    public byte[] get(byte[] key) {
+        lock.readLock().lock();
+        try { return doGet(key); } finally { lock.readLock().unlock(); }
     }
-    public byte[] get(String key) {
-        return db.get(key);
+    public ByteBuffer getBuffer(byte[] key) {
+        lock.readLock().lock();
+        try { return doGetBuffer(key); } finally { lock.readLock().unlock(); }
     }
-    public void clear() { db.clear(); }
-    public void delete(String key) {
-        db.remove(key);
+    public boolean contains(byte[] key) {
+        lock.readLock().lock();
+        try { return doContains(key); } finally { lock.readLock().unlock(); }
+    }
+    public void clear() {
+        if (logged()) { owner.write(owner.newBatch().clear(name), false); return; }
+        lock.readLock().lock();
+        try { doClear(); } finally { lock.readLock().unlock(); }
+    }
+    public void delete(byte[] key) {
+        if (logged()) { owner.write(owner.newBatch().delete(name, key), false); return; }
+        lock.readLock().lock();
+        try { doDelete(key); } finally { lock.readLock().unlock(); }
     }
     public Cursor Cursor() {
-        return new Cursor(db);
+        return new Cursor(this, db);
+    }
+    public long count() { return db.size(); }
+    public String getName() { return name; }
+    public void sync() {}
+    public void close() {}
+
+    public void put(String key, byte[] value) { put(key(key), value); }
+    public byte[] get(String key) { return get(key(key)); }
+    public ByteBuffer getBuffer(String key) { return getBuffer(key(key)); }
+    public void delete(String key) { delete(key(key)); }
+
+    private boolean logged() { return owner != null && owner.isPersistent(); }
+
+    // storage operations, called with the lock already held
+    protected void doPut(byte[] key, byte[] value) { db.put(key, value); }
+    protected byte[] doGet(byte[] key) { return db.get(key); }
+    protected ByteBuffer doGetBuffer(byte[] key) {
+        byte[] value = db.get(key);
+        return value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+    }
+    protected boolean doContains(byte[] key) { return db.containsKey(key); }
+    protected void doClear() { db.clear(); }
+    protected void doDelete(byte[] key) { db.remove(key); }
+
+    // value of an entry of the map handed to the cursor
+    protected byte[] value(Object entry) {
+        return (byte[]) entry;
+    }
+
+    public static byte[] key(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static int compare(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return a.length - b.length;
     }
 
-}
\ No newline at end of file
+}
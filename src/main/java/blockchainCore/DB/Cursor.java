@@ -2,43 +2,84 @@ package blockchainCore.DB;
 
 import blockchainCore.utils.Pair;
 
-import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
 
 
+// streaming cursor over a bucket in key order.
+// it walks the live index (weakly consistent) instead of copying the key set.
 public class Cursor {
-    ConcurrentHashMap<String, byte[]> db;
-    ArrayList<String> keys;
-    int idx = -1;
+    private final Bucket bucket;
+    private NavigableMap<byte[], ?> view;
+    private Iterator<? extends Map.Entry<byte[], ?>> itr;
+    private Pair<byte[], byte[]> next;
 
-    public Cursor(ConcurrentHashMap<String, byte[]> db) {
-        this.db = db;
-        keys = new ArrayList<String>();
-        keys.addAll(db.keySet());
+    public Cursor(Bucket bucket, NavigableMap<byte[], ?> index) {
+        this.bucket = bucket;
+        this.view = index;
+        this.itr = view.entrySet().iterator();
     }
 
-    public Pair<String, byte[]> first() {
-        idx = 0;
-        return new Pair<>(keys.get(idx), db.get(keys.get(idx)));
+    public Pair<byte[], byte[]> first() {
+        itr = view.entrySet().iterator();
+        next = null;
+        return hasNext() ? next() : null;
     }
 
     public Boolean hasNext() {
-        if(idx+1 >= keys.size()) return false;
-        return true;
+        while (next == null && itr.hasNext()) {
+            Map.Entry<byte[], ?> entry = itr.next();
+            next = new Pair<>(entry.getKey(), bucket.value(entry.getValue()));
+        }
+        return next != null;
     }
 
+    public Pair<byte[], byte[]> tail() {
+        Map.Entry<byte[], ?> last = view.lastEntry();
+        itr = view.tailMap(last == null ? new byte[0] : last.getKey(), false).entrySet().iterator();
+        next = null;
+        return last == null ? null : new Pair<>(last.getKey(), bucket.value(last.getValue()));
+    }
+
+    public Pair<byte[], byte[]> next() {
+        if (!hasNext()) return null;
+
+        Pair<byte[], byte[]> kv = next;
+        next = null;
+        return kv;
+    }
+
+    // next() continues from the first key >= key
+    public Cursor seek(byte[] key) {
+        itr = view.tailMap(key, true).entrySet().iterator();
+        next = null;
+        return this;
+    }
 
-    public Pair<String, byte[]> tail() {
-        idx = db.size()-1;
-        return new Pair<>(keys.get(idx), db.get(keys.get(idx)));
+    // restrict the cursor to keys starting with prefix
+    public Cursor prefix(byte[] prefix) {
+        byte[] end = successor(prefix);
+        view = end == null ? view.tailMap(prefix, true) : view.subMap(prefix, true, end, false);
+        return seek(prefix);
     }
 
-    public Pair<String, byte[]> get(int idx){
-        return new Pair<>(keys.get(idx), db.get(keys.get(idx)));
+    // restrict the cursor to keys in [from, to)
+    public Cursor range(byte[] from, byte[] to) {
+        view = view.subMap(from, true, to, false);
+        return seek(from);
     }
 
-    public Pair<String, byte[]> next() {
-        idx++;
-        return new Pair<>(keys.get(idx), db.get(keys.get(idx)));
+    // smallest key greater than every key starting with prefix, null if there is none
+    private static byte[] successor(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xff) {
+                byte[] end = new byte[i + 1];
+                System.arraycopy(prefix, 0, end, 0, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
     }
 }
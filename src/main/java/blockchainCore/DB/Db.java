@@ -1,17 +1,146 @@
 package blockchainCore.DB;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+// a persistent db keeps large buckets (blocks, undo) in FileBuckets and the rest (chainstate, ...) in memory.
+// every batch is appended to a write-ahead log before it is applied.
+// once the log grows past checkpointSize the file buckets are forced, the in memory buckets are snapshotted
+// and the log is emptied, so opening the db costs one snapshot load plus the log tail.
 public class Db {
+    public static final String[] FILE_BUCKETS = {"blocks", "undo"};
+    public static final long DEFAULT_CHECKPOINT_SIZE = 16L * 1024 * 1024;
 
     private ConcurrentHashMap<String, Bucket> bucket = new ConcurrentHashMap();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final File path;
+    private final HashSet<String> fileBuckets = new HashSet<>();
+    private WriteAheadLog wal;
+    private long seq = 0;
+    private long checkpointSize = DEFAULT_CHECKPOINT_SIZE;
+
+    // in memory db
+    public Db() { this.path = null; }
+
+    // persistent db, file buckets are stored under 'path/<bucket name>'
+    public Db(String path) { this(path, FILE_BUCKETS); }
+    public Db(String path, String... fileBuckets) {
+        this.path = new File(path);
+        this.fileBuckets.addAll(Arrays.asList(fileBuckets));
+        if (!this.path.isDirectory() && !this.path.mkdirs())
+            throw new IllegalStateException("can not create " + path);
+
+        try {
+            long snapshotSeq = Snapshot.load(snapshotFile(), this);
+            seq = snapshotSeq;
+
+            WriteAheadLog log = new WriteAheadLog(new File(this.path, "wal"));
+            log.replay((s, data) -> {
+                if (s <= snapshotSeq) return; // already in the snapshot
+                try {
+                    apply(WriteBatch.decode(this, data), true);
+                } catch (IOException e) {
+                    throw new IllegalStateException("corrupted log record " + s, e);
+                }
+                seq = s;
+            });
+            wal = log;
+        } catch (IOException e) {
+            throw new IllegalStateException("can not recover " + path, e);
+        }
+    }
 
     public Bucket getBucket(String bucket) {
-        Bucket b = this.bucket.get(bucket);
-        if(b == null) {
-            b = new Bucket();
-            this.bucket.put(bucket, b);
+        return this.bucket.computeIfAbsent(bucket, name -> fileBuckets.contains(name)
+                ? new FileBucket(new File(path, name), name, this)
+                : new Bucket(name, this));
+    }
+
+    public WriteBatch newBatch() { return new WriteBatch(this); }
+
+    public void write(WriteBatch batch) { write(batch, true); }
+
+    // apply every mutation of the batch at once.
+    // readers never see a part of it, and with a persistent db it survives a crash as a whole.
+    // sync forces the log record to disk, one fsync for the whole batch.
+    public void write(WriteBatch batch, boolean sync) {
+        if (batch.isEmpty()) return;
+
+        lock.writeLock().lock();
+        try {
+            if (wal != null) wal.append(++seq, batch.encode(), sync);
+            apply(batch, false);
+            if (wal != null && wal.size() >= checkpointSize) checkpoint();
+        } catch (IOException e) {
+            throw new IllegalStateException("can not write batch", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // make the buckets durable on their own and drop the log
+    public void checkpoint() {
+        if (wal == null) return;
+
+        lock.writeLock().lock();
+        try {
+            TreeMap<String, Bucket> memory = new TreeMap<>();
+            for (Bucket b : bucket.values()) {
+                if (b instanceof FileBucket) b.sync();
+                else memory.put(b.getName(), b);
+            }
+            Snapshot.write(snapshotFile(), seq, memory);
+            wal.reset();
+        } catch (IOException e) {
+            throw new IllegalStateException("can not checkpoint " + path, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(WriteBatch batch, boolean replay) {
+        for (WriteBatch.Op op : batch.getOps()) {
+            Bucket b = getBucket(op.bucket);
+
+            switch (op.type) {
+                case WriteBatch.PUT:
+                    // a file bucket may already hold a replayed record, do not append it twice
+                    if (replay && b instanceof FileBucket && Arrays.equals(b.doGet(op.key), op.value)) break;
+                    b.doPut(op.key, op.value);
+                    break;
+                case WriteBatch.DELETE: b.doDelete(op.key); break;
+                case WriteBatch.CLEAR:  b.doClear();        break;
+            }
+        }
+    }
+
+    private File snapshotFile() { return new File(path, "snapshot"); }
+
+    public void setCheckpointSize(long checkpointSize) { this.checkpointSize = checkpointSize; }
+    public boolean isPersistent() { return path != null; }
+    ReadWriteLock getLock() { return lock; }
+
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (wal != null) {
+                checkpoint();
+                wal.close();
+                wal = null;
+            }
+            for (Bucket b : bucket.values())
+                b.close();
+            bucket.clear();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
         }
-        return b;
     }
 }
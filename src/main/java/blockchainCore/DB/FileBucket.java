@@ -0,0 +1,218 @@
+package blockchainCore.DB;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+// persistent bucket.
+// values are appended to segmented data files and read back through memory mapped pages,
+// only the key -> (segment, offset, length) index lives on the heap.
+//
+// record : crc(4) | keyLen(4) | valueLen(4) | key | value      (valueLen == -1 : deleted)
+public class FileBucket extends Bucket {
+    static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final int HEADER_SIZE = 12;
+    private static final int TOMBSTONE = -1;
+
+    private final File dir;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private final ConcurrentSkipListMap<byte[], Location> index = new ConcurrentSkipListMap<>(KEY_ORDER);
+
+    public FileBucket(File dir, String name, Db owner) {
+        super(name, owner);
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IllegalStateException("can not create " + dir);
+
+        try {
+            File[] files = dir.listFiles((d, file) -> file.endsWith(".dat"));
+            Arrays.sort(files);
+            for (int i = 0; i < files.length; i++) {
+                Segment segment = new Segment(files[i], segmentId(files[i]));
+                segments.add(segment);
+                load(segment, i == files.length - 1);
+            }
+            if (segments.isEmpty())
+                newSegment();
+        } catch (IOException e) {
+            throw new IllegalStateException("can not open " + dir, e);
+        }
+    }
+
+    @Override
+    protected synchronized void doPut(byte[] key, byte[] value) {
+        try {
+            Segment segment = activeSegment(HEADER_SIZE + key.length + value.length);
+            long offset = segment.append(record(key, value));
+            index.put(key, new Location(segment, offset + HEADER_SIZE + key.length, value.length));
+        } catch (IOException e) {
+            throw new IllegalStateException("can not write " + dir, e);
+        }
+    }
+
+    @Override
+    protected byte[] doGet(byte[] key) {
+        return value(index.get(key));
+    }
+
+    // zero-copy, read-only view of the stored value
+    @Override
+    protected ByteBuffer doGetBuffer(byte[] key) {
+        Location loc = index.get(key);
+        if (loc == null) return null;
+        return loc.segment.slice(loc.offset, loc.length).asReadOnlyBuffer();
+    }
+
+    @Override
+    public long count() { return index.size(); }
+
+    @Override
+    protected boolean doContains(byte[] key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    protected synchronized void doDelete(byte[] key) {
+        if (!index.containsKey(key)) return;
+
+        try {
+            activeSegment(HEADER_SIZE + key.length).append(record(key, null));
+            index.remove(key);
+        } catch (IOException e) {
+            throw new IllegalStateException("can not write " + dir, e);
+        }
+    }
+
+    @Override
+    protected synchronized void doClear() {
+        try {
+            for (Segment segment : segments) {
+                segment.close();
+                segment.getFile().delete();
+            }
+            segments.clear();
+            index.clear();
+            newSegment();
+        } catch (IOException e) {
+            throw new IllegalStateException("can not clear " + dir, e);
+        }
+    }
+
+    @Override
+    public Cursor Cursor() {
+        return new Cursor(this, index);
+    }
+
+    @Override
+    protected byte[] value(Object entry) {
+        Location loc = (Location) entry;
+        if (loc == null) return null;
+        return loc.segment.read(loc.offset, loc.length);
+    }
+
+    @Override
+    public synchronized void sync() {
+        try {
+            segments.get(segments.size() - 1).force();
+        } catch (IOException e) {
+            throw new IllegalStateException("can not sync " + dir, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            for (Segment segment : segments)
+                segment.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Segment activeSegment(int recordSize) throws IOException {
+        Segment active = segments.get(segments.size() - 1);
+        if (active.size() > 0 && active.size() + recordSize > SEGMENT_SIZE) {
+            active.force();
+            active = newSegment();
+        }
+        return active;
+    }
+
+    private Segment newSegment() throws IOException {
+        int id = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getId() + 1;
+        Segment segment = new Segment(new File(dir, String.format("%08d.dat", id)), id);
+        segments.add(segment);
+        return segment;
+    }
+
+    // rebuild the index from a segment. only the last segment can hold a torn write, so only it is checksummed.
+    private void load(Segment segment, boolean verify) throws IOException {
+        long pos = 0;
+        long size = segment.size();
+
+        while (pos + HEADER_SIZE <= size) {
+            ByteBuffer header = segment.slice(pos, HEADER_SIZE);
+            int crc = header.getInt();
+            int keyLen = header.getInt();
+            int valueLen = header.getInt();
+            int bodyLen = keyLen + Math.max(valueLen, 0);
+
+            if (keyLen < 0 || valueLen < TOMBSTONE || pos + HEADER_SIZE + bodyLen > size) break;
+            if (verify && crc != checksum(keyLen, valueLen, segment.slice(pos + HEADER_SIZE, bodyLen))) break;
+
+            byte[] key = segment.read(pos + HEADER_SIZE, keyLen);
+            if (valueLen == TOMBSTONE)
+                index.remove(key);
+            else
+                index.put(key, new Location(segment, pos + HEADER_SIZE + keyLen, valueLen));
+
+            pos += HEADER_SIZE + bodyLen;
+        }
+
+        if (pos < size) segment.truncate(pos);
+    }
+
+    private static ByteBuffer record(byte[] key, byte[] value) {
+        int valueLen = value == null ? TOMBSTONE : value.length;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + key.length + Math.max(valueLen, 0));
+
+        buf.position(4);
+        buf.putInt(key.length);
+        buf.putInt(valueLen);
+        buf.put(key);
+        if (value != null) buf.put(value);
+
+        buf.position(HEADER_SIZE);
+        buf.putInt(0, checksum(key.length, valueLen, buf.slice()));
+        buf.rewind();
+        return buf;
+    }
+
+    private static int checksum(int keyLen, int valueLen, ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putInt(keyLen).putInt(valueLen).array());
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private static int segmentId(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(0, name.length() - ".dat".length()));
+    }
+
+    private static class Location {
+        final Segment segment;
+        final long offset;
+        final int length;
+
+        Location(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
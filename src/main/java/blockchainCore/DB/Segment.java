@@ -0,0 +1,79 @@
+package blockchainCore.DB;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// append-only data file of a FileBucket.
+// writes go through the channel, reads are served from a read-only mapping of the file.
+class Segment {
+    private final int id;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+    private volatile long size;
+
+    Segment(File file, int id) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        this.size = channel.size();
+    }
+
+    long append(ByteBuffer record) throws IOException {
+        long offset = size;
+        while (record.hasRemaining())
+            size += channel.write(record, size);
+        return offset;
+    }
+
+    ByteBuffer slice(long offset, int length) {
+        MappedByteBuffer m = mapped;
+        if (m == null || offset + length > m.capacity())
+            m = remap();
+
+        ByteBuffer buf = m.duplicate();
+        buf.position((int) offset);
+        buf.limit((int) offset + length);
+        return buf.slice();
+    }
+
+    byte[] read(long offset, int length) {
+        byte[] data = new byte[length];
+        slice(offset, length).get(data);
+        return data;
+    }
+
+    private synchronized MappedByteBuffer remap() {
+        try {
+            if (mapped == null || mapped.capacity() < size)
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            throw new IllegalStateException("can not map " + file, e);
+        }
+        return mapped;
+    }
+
+    void truncate(long size) throws IOException {
+        channel.truncate(size);
+        this.size = size;
+        mapped = null;
+    }
+
+    void force() throws IOException { channel.force(false); }
+
+    void close() throws IOException {
+        mapped = null;
+        channel.close();
+        raf.close();
+    }
+
+    int getId() { return id; }
+    File getFile() { return file; }
+    long size() { return size; }
+}
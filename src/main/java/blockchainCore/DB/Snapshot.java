@@ -0,0 +1,85 @@
+package blockchainCore.DB;
+
+import blockchainCore.utils.Pair;
+
+import java.io.*;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// image of the in memory buckets (chainstate and friends) of a persistent db at a log sequence number.
+// a new snapshot is written next to the old one and renamed over it, so there is always a complete one.
+//
+// file : magic(4) | version(4) | seq(8) | bucketCount(4) | { name | count(8) | { keyLen(4) | key | valueLen(4) | value } } | crc(8)
+class Snapshot {
+    private static final int MAGIC = 0x42435353; // "BCSS"
+    private static final int VERSION = 1;
+
+    static void write(File file, long seq, Map<String, Bucket> buckets) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(fos, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(cos);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seq);
+            out.writeInt(buckets.size());
+            for (Map.Entry<String, Bucket> bucket : buckets.entrySet()) {
+                out.writeUTF(bucket.getKey());
+                out.writeLong(bucket.getValue().count());
+
+                Cursor c = bucket.getValue().Cursor();
+                while (c.hasNext()) {
+                    Pair<byte[], byte[]> kv = c.next();
+                    out.writeInt(kv.getKey().length);
+                    out.write(kv.getKey());
+                    out.writeInt(kv.getValue().length);
+                    out.write(kv.getValue());
+                }
+            }
+            out.writeLong(cos.getChecksum().getValue());
+            out.flush();
+            fos.getFD().sync();
+        }
+
+        if (!tmp.renameTo(file))
+            throw new IOException("can not replace " + file);
+    }
+
+    // load the snapshot into db and return its sequence number, 0 if there is none
+    static long load(File file, Db db) throws IOException {
+        if (!file.exists()) return 0;
+
+        try (FileInputStream fis = new FileInputStream(file)) {
+            CheckedInputStream cis = new CheckedInputStream(new BufferedInputStream(fis, 1 << 16), new CRC32());
+            DataInputStream in = new DataInputStream(cis);
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("unknown snapshot format " + file);
+
+            long seq = in.readLong();
+            int buckets = in.readInt();
+            for (int i = 0; i < buckets; i++) {
+                Bucket bucket = db.getBucket(in.readUTF());
+                bucket.doClear();
+
+                long count = in.readLong();
+                for (long j = 0; j < count; j++) {
+                    byte[] key = new byte[in.readInt()];
+                    in.readFully(key);
+                    byte[] value = new byte[in.readInt()];
+                    in.readFully(value);
+                    bucket.doPut(key, value);
+                }
+            }
+
+            long crc = cis.getChecksum().getValue();
+            if (in.readLong() != crc)
+                throw new IOException("corrupted snapshot " + file);
+            return seq;
+        }
+    }
+}
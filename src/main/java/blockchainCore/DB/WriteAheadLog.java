@@ -0,0 +1,92 @@
+package blockchainCore.DB;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+// append-only log of every batch written to a persistent db, emptied at each checkpoint.
+//
+// record : length(4) | crc(4) | seq(8) | batch        (crc covers seq and batch)
+class WriteAheadLog {
+    private static final int HEADER_SIZE = 16;
+
+    private final File file;
+    private final RandomAccessFile raf;
+
+    WriteAheadLog(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+    }
+
+    void append(long seq, byte[] batch, boolean sync) throws IOException {
+        byte[] record = new byte[HEADER_SIZE + batch.length];
+        putInt(record, 0, batch.length);
+        putLong(record, 8, seq);
+        System.arraycopy(batch, 0, record, HEADER_SIZE, batch.length);
+        putInt(record, 4, crc(record, 8, record.length - 8));
+
+        raf.seek(raf.length());
+        raf.write(record);
+        if (sync) raf.getFD().sync();
+    }
+
+    // hand every complete record to 'apply' in order. a torn record at the end is cut off.
+    void replay(BiConsumer<Long, byte[]> apply) throws IOException {
+        long pos = 0;
+        long size = raf.length();
+        byte[] header = new byte[HEADER_SIZE];
+
+        raf.seek(0);
+        while (pos + HEADER_SIZE <= size) {
+            raf.readFully(header);
+            int length = getInt(header, 0);
+            if (length < 0 || pos + HEADER_SIZE + length > size) break;
+
+            byte[] record = new byte[8 + length];
+            System.arraycopy(header, 8, record, 0, 8);
+            raf.readFully(record, 8, length);
+            if (crc(record, 0, record.length) != getInt(header, 4)) break;
+
+            byte[] batch = new byte[length];
+            System.arraycopy(record, 8, batch, 0, length);
+            apply.accept(getLong(header, 8), batch);
+
+            pos += HEADER_SIZE + length;
+        }
+
+        if (pos < size) raf.setLength(pos);
+    }
+
+    void reset() throws IOException {
+        raf.setLength(0);
+        raf.getFD().sync();
+    }
+
+    long size() throws IOException { return raf.length(); }
+
+    void close() throws IOException { raf.close(); }
+
+    File getFile() { return file; }
+
+    private static int crc(byte[] data, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        return (int) crc.getValue();
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24); b[off + 1] = (byte) (v >>> 16); b[off + 2] = (byte) (v >>> 8); b[off + 3] = (byte) v;
+    }
+    private static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        putInt(b, off + 4, (int) v);
+    }
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+    }
+    private static long getLong(byte[] b, int off) {
+        return (long) getInt(b, off) << 32 | (getInt(b, off + 4) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,119 @@
+package blockchainCore.DB;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+// collects mutations over several buckets and commits them with Db.write() in one step.
+// get() sees the batch's own pending writes on top of the bucket.
+public class WriteBatch {
+    static final byte PUT = 1, DELETE = 2, CLEAR = 3;
+
+    private final Db db;
+    private final ArrayList<Op> ops = new ArrayList<>();
+    private final HashMap<String, TreeMap<byte[], byte[]>> pending = new HashMap<>();
+    private final HashSet<String> cleared = new HashSet<>();
+
+    WriteBatch(Db db) {
+        this.db = db;
+    }
+
+    public WriteBatch put(String bucket, byte[] key, byte[] value) {
+        ops.add(new Op(PUT, bucket, key, value));
+        pending(bucket).put(key, value);
+        return this;
+    }
+    public WriteBatch put(String bucket, String key, byte[] value) { return put(bucket, Bucket.key(key), value); }
+
+    public WriteBatch delete(String bucket, byte[] key) {
+        ops.add(new Op(DELETE, bucket, key, null));
+        pending(bucket).put(key, null);
+        return this;
+    }
+    public WriteBatch delete(String bucket, String key) { return delete(bucket, Bucket.key(key)); }
+
+    public WriteBatch clear(String bucket) {
+        ops.add(new Op(CLEAR, bucket, null, null));
+        pending(bucket).clear();
+        cleared.add(bucket);
+        return this;
+    }
+
+    public byte[] get(String bucket, byte[] key) {
+        TreeMap<byte[], byte[]> p = pending.get(bucket);
+        if (p != null && p.containsKey(key)) return p.get(key);
+        if (cleared.contains(bucket)) return null;
+        return db.getBucket(bucket).get(key);
+    }
+    public byte[] get(String bucket, String key) { return get(bucket, Bucket.key(key)); }
+
+    public int size() { return ops.size(); }
+    public boolean isEmpty() { return ops.isEmpty(); }
+
+    ArrayList<Op> getOps() { return ops; }
+
+    private TreeMap<byte[], byte[]> pending(String bucket) {
+        return pending.computeIfAbsent(bucket, b -> new TreeMap<>(Bucket.KEY_ORDER));
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeInt(ops.size());
+            for (Op op : ops) {
+                out.writeByte(op.type);
+                out.writeUTF(op.bucket);
+                if (op.type == CLEAR) continue;
+                out.writeInt(op.key.length);
+                out.write(op.key);
+                if (op.type == DELETE) continue;
+                out.writeInt(op.value.length);
+                out.write(op.value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    static WriteBatch decode(Db db, byte[] data) throws IOException {
+        WriteBatch batch = new WriteBatch(db);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            byte type = in.readByte();
+            String bucket = in.readUTF();
+            if (type == CLEAR) {
+                batch.clear(bucket);
+                continue;
+            }
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            if (type == DELETE) {
+                batch.delete(bucket, key);
+                continue;
+            }
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            batch.put(bucket, key, value);
+        }
+        return batch;
+    }
+
+    static class Op {
+        final byte type;
+        final String bucket;
+        final byte[] key;
+        final byte[] value;
+
+        Op(byte type, String bucket, byte[] key, byte[] value) {
+            this.type = type;
+            this.bucket = bucket;
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
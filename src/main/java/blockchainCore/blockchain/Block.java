@@ -1,11 +1,33 @@
 package blockchainCore.blockchain;
 
 import blockchainCore.blockchain.transaction.Transaction;
+import blockchainCore.blockchain.consensus.ProofOfWork;
+import blockchainCore.blockchain.merkletree.MerkleTree;
+import blockchainCore.utils.Codec;
 import blockchainCore.utils.Utils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.stream.IntStream;
 
 public class Block implements Serializable{
+    public static final int VERSION = 3;
+
+    // stored form : version(1) | timestamp(8) | prevBlockHash(32) | hash(32) | nonce(4) | height(4) | merkleRoot(32)
+    //               | bits(4) | tx count | { tx length | tx }...
+    static final int TIMESTAMP_OFFSET = 1;
+    static final int PREV_HASH_OFFSET = 9;
+    static final int HASH_OFFSET = 41;
+    static final int NONCE_OFFSET = 73;
+    static final int HEIGHT_OFFSET = 77;
+    static final int MERKLE_ROOT_OFFSET = 81;
+    static final int BITS_OFFSET = 113;
+    static final int HEADER_SIZE = 117;
+
+    // what the proof of work covers : version(1) | prevBlockHash(32) | merkleRoot(32) | timestamp(8) | height(4) | bits(4)
+    public static final int POW_HEADER_SIZE = 81;
 
     private long timestamp;
     private Transaction[] transactions;
@@ -13,6 +35,13 @@ public class Block implements Serializable{
     private byte[] hash;
     private int nonce;
     private int height;
+    // compact target (see ProofOfWork), the easiest one until the chain sets it
+    private int bits = ProofOfWork.LIMIT_BITS;
+
+    // root of the merkle tree of the transaction hashes, fixed once the block is built
+    private byte[] merkleRoot;
+    // set once the block is shared through the BlockCache, its header can not change any more
+    private transient boolean readOnly = false;
 
     //genesis block
     public Block(Transaction coinbase) {
@@ -27,9 +56,11 @@ public class Block implements Serializable{
         this.height = height;
     }
 
+    private Block() {}
+
     //bytes to block
     public Block(byte[] b) {
-        Block block = Utils.toObject(b);
+        Block block = decode(ByteBuffer.wrap(b));
 
         this.timestamp = block.timestamp;
         this.transactions = block.transactions;
@@ -37,10 +68,37 @@ public class Block implements Serializable{
         this.hash = block.hash;
         this.nonce = block.nonce;
         this.height = block.height;
+        this.merkleRoot = block.merkleRoot;
+        this.bits = block.bits;
     }
 
+    // fixed size header, the transactions are in it through the merkle root
     public byte[] getBytesExceptHash() {
-        return Utils.bytesConcat(String.valueOf(timestamp).getBytes(), Utils.sha256(Utils.toBytes(transactions)), prevBlockHash);
+        ByteBuffer buf = ByteBuffer.allocate(POW_HEADER_SIZE);
+        buf.put((byte) VERSION);
+        Codec.putHash(buf, prevBlockHash);
+        Codec.putHash(buf, getMerkleRoot());
+        buf.putLong(timestamp);
+        buf.putInt(height);
+        buf.putInt(bits);
+        return buf.array();
+    }
+
+    public byte[] getMerkleRoot() {
+        if (merkleRoot == null) merkleRoot = computeMerkleRoot();
+        return merkleRoot;
+    }
+
+    // root over the transactions themselves, a received block is valid only if it matches getMerkleRoot()
+    public byte[] computeMerkleRoot() { return getMerkleTree().getRoot(); }
+
+    // leaves : Transaction.Hash(), which covers the signatures too. proofs are built from this tree
+    public MerkleTree getMerkleTree() {
+        ArrayList<byte[]> leaves = new ArrayList<>(Collections.nCopies(transactions.length, (byte[]) null));
+        IntStream range = IntStream.range(0, transactions.length);
+        if (transactions.length >= MerkleTree.PARALLEL_LEAVES) range = range.parallel();
+        range.forEach(i -> leaves.set(i, transactions[i].Hash()));
+        return new MerkleTree(leaves);
     }
 
     public byte[] getPrevBlockHash() {
@@ -56,13 +114,37 @@ public class Block implements Serializable{
     }
 
     public void setHash(byte[] hash) {
+        checkWritable();
         this.hash = hash;
     }
 
     public void setNonce(int nonce) {
+        checkWritable();
         this.nonce = nonce;
     }
 
+    public int getBits() {
+        return bits;
+    }
+
+    public void setBits(int bits) {
+        checkWritable();
+        this.bits = bits;
+    }
+
+    // the miner moves it forward once every nonce has been tried
+    public void setTimestamp(long timestamp) {
+        checkWritable();
+        this.timestamp = timestamp;
+    }
+
+    void setReadOnly() { readOnly = true; }
+    public boolean isReadOnly() { return readOnly; }
+
+    private void checkWritable() {
+        if (readOnly) throw new IllegalStateException("block " + Utils.toHexString(hash) + " is shared read-only, build a new one");
+    }
+
     public int getHeight() {
         return height;
     }
@@ -74,4 +156,54 @@ public class Block implements Serializable{
     public long getTimestamp() {
         return timestamp;
     }
+
+    public void encode(ByteBuffer buf) {
+        buf.put((byte) VERSION);
+        buf.putLong(timestamp);
+        Codec.putHash(buf, prevBlockHash);
+        Codec.putHash(buf, hash);
+        buf.putInt(nonce);
+        buf.putInt(height);
+        Codec.putHash(buf, getMerkleRoot());
+        buf.putInt(bits);
+
+        Codec.putVarInt(buf, transactions.length);
+        for (Transaction tx : transactions) {
+            Codec.putVarInt(buf, tx.encodedSize());
+            tx.encode(buf);
+        }
+    }
+    public int encodedSize() {
+        int size = HEADER_SIZE + Codec.varIntSize(transactions.length);
+        for (Transaction tx : transactions) {
+            int txSize = tx.encodedSize();
+            size += Codec.varIntSize(txSize) + txSize;
+        }
+        return size;
+    }
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(encodedSize());
+        encode(buf);
+        return buf.array();
+    }
+
+    public static Block decode(ByteBuffer buf) {
+        Codec.checkVersion(buf, VERSION, "block");
+
+        Block block = new Block();
+        block.timestamp = buf.getLong();
+        block.prevBlockHash = Codec.getHash(buf);
+        block.hash = Codec.getHash(buf);
+        block.nonce = buf.getInt();
+        block.height = buf.getInt();
+        block.merkleRoot = Codec.getHash(buf);
+        block.bits = buf.getInt();
+
+        block.transactions = new Transaction[Codec.getVarInt(buf)];
+        for (int i = 0; i < block.transactions.length; i++) {
+            Codec.getVarInt(buf); // tx length, used by readers that skip transactions
+            block.transactions[i] = Transaction.decode(buf);
+        }
+        return block;
+    }
 }
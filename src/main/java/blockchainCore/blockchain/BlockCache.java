@@ -0,0 +1,87 @@
+package blockchainCore.blockchain;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU cache of decoded blocks keyed by hash.
+// it is bounded by the stored size of the blocks it holds, not by their count.
+// every caller gets the same instance, so a block is made read-only when it is put (setters throw).
+// its transactions are shared the same way and must not be signed or changed either.
+public class BlockCache {
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private final long maxBytes;
+    private long bytes = 0;
+    private long hits = 0, misses = 0, evictions = 0;
+
+    private final LinkedHashMap<ByteBuffer, Entry> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    public BlockCache() { this(DEFAULT_MAX_BYTES); }
+    public BlockCache(long maxBytes) { this.maxBytes = maxBytes; }
+
+    public synchronized Block get(byte[] hash) {
+        Entry entry = blocks.get(ByteBuffer.wrap(hash));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.block;
+    }
+
+    public synchronized boolean contains(byte[] hash) {
+        return blocks.containsKey(ByteBuffer.wrap(hash));
+    }
+
+    // size : length of the stored form of the block
+    public synchronized void put(Block block, int size) {
+        block.setReadOnly();
+        if (size > maxBytes) return;
+
+        Entry old = blocks.put(ByteBuffer.wrap(block.getHash()), new Entry(block, size));
+        if (old != null) bytes -= old.size;
+        bytes += size;
+
+        Iterator<Map.Entry<ByteBuffer, Entry>> itr = blocks.entrySet().iterator();
+        while (bytes > maxBytes && itr.hasNext()) {
+            bytes -= itr.next().getValue().size;
+            itr.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void remove(byte[] hash) {
+        Entry old = blocks.remove(ByteBuffer.wrap(hash));
+        if (old != null) bytes -= old.size;
+    }
+
+    public synchronized void clear() {
+        blocks.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() { return blocks.size(); }
+    public synchronized long getBytes() { return bytes; }
+    public long getMaxBytes() { return maxBytes; }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BlockCache{blocks=%d, bytes=%d/%d, hits=%d, misses=%d, evictions=%d}",
+                blocks.size(), bytes, maxBytes, hits, misses, evictions);
+    }
+
+    private static class Entry {
+        final Block block;
+        final int size;
+
+        Entry(Block block, int size) {
+            this.block = block;
+            this.size = size;
+        }
+    }
+}
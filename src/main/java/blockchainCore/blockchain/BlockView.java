@@ -0,0 +1,98 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.blockchain.transaction.Transaction;
+import blockchainCore.utils.Codec;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// read-only view of a stored block (see Block.encode).
+// header fields are read from their fixed offsets on access and transactions are decoded one at a time,
+// so walking a chain for hashes or heights does not decode any transaction.
+public class BlockView {
+    private final ByteBuffer buf;
+
+    private BlockView(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    public static BlockView wrap(ByteBuffer stored) {
+        ByteBuffer buf = stored.slice();
+        int version = buf.get(0) & 0xff;
+        if (version != Block.VERSION) throw new IllegalArgumentException("unsupported block version " + version);
+        return new BlockView(buf);
+    }
+
+    public long getTimestamp() { return buf.getLong(Block.TIMESTAMP_OFFSET); }
+    public byte[] getPrevBlockHash() { return hashAt(Block.PREV_HASH_OFFSET); }
+    public byte[] getHash() { return hashAt(Block.HASH_OFFSET); }
+    public int getNonce() { return buf.getInt(Block.NONCE_OFFSET); }
+    public int getHeight() { return buf.getInt(Block.HEIGHT_OFFSET); }
+    public byte[] getMerkleRoot() { return hashAt(Block.MERKLE_ROOT_OFFSET); }
+    public int getBits() { return buf.getInt(Block.BITS_OFFSET); }
+
+    public boolean isGenesis() { return getPrevBlockHash().length == 0; }
+
+    public int getTransactionCount() {
+        ByteBuffer b = buf.duplicate();
+        b.position(Block.HEADER_SIZE);
+        return Codec.getVarInt(b);
+    }
+
+    // i-th transaction, skipping the ones before it without decoding them
+    public Transaction getTransaction(int i) {
+        ByteBuffer b = buf.duplicate();
+        b.position(Block.HEADER_SIZE);
+        int count = Codec.getVarInt(b);
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException("transaction " + i + " of " + count);
+
+        for (int j = 0; j < i; j++) {
+            int len = Codec.getVarInt(b);
+            b.position(b.position() + len);
+        }
+        Codec.getVarInt(b);
+        return Transaction.decode(b);
+    }
+
+    // transactions, decoded as the iteration reaches them
+    public Iterable<Transaction> getTransactions() {
+        return () -> new Iterator<Transaction>() {
+            private final ByteBuffer b = txStart();
+            private int left = Codec.getVarInt(b);
+
+            public boolean hasNext() { return left > 0; }
+
+            public Transaction next() {
+                if (left <= 0) throw new NoSuchElementException();
+                left--;
+
+                int len = Codec.getVarInt(b);
+                ByteBuffer tx = b.duplicate();
+                tx.limit(b.position() + len);
+                b.position(b.position() + len);
+                return Transaction.decode(tx);
+            }
+        };
+    }
+
+    public Block toBlock() { return Block.decode(buf.duplicate()); }
+
+    public int size() { return buf.remaining(); }
+
+    private ByteBuffer txStart() {
+        ByteBuffer b = buf.duplicate();
+        b.position(Block.HEADER_SIZE);
+        return b;
+    }
+
+    private byte[] hashAt(int offset) {
+        byte[] hash = new byte[Codec.HASH_SIZE];
+        boolean empty = true;
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = buf.get(offset + i);
+            empty &= hash[i] == 0;
+        }
+        return empty ? new byte[0] : hash;
+    }
+}
@@ -2,15 +2,21 @@ package blockchainCore.blockchain;
 
 import blockchainCore.DB.Bucket;
 import blockchainCore.DB.Db;
+import blockchainCore.DB.WriteBatch;
 import blockchainCore.blockchain.consensus.ProofOfWork;
 import blockchainCore.blockchain.transaction.*;
 import blockchainCore.blockchain.wallet.Wallet;
+import blockchainCore.utils.Codec;
 import blockchainCore.utils.Pair;
 import blockchainCore.utils.Utils;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Blockchain {
     private Db db;
@@ -18,118 +24,430 @@ public class Blockchain {
     private int lastHeight;
 
     private ProofOfWork pow = new ProofOfWork();
+    private BlockCache blockCache = new BlockCache();
+    private TxIndex txIndex;
+    private CoinsCache coins;
+    private SignatureVerifier verifier = new SignatureVerifier();
     private ConcurrentHashMap<String, Block> orphanBlocks = new ConcurrentHashMap<>();
     private final Object mutexAddBlock = new Object();
+    private final CopyOnWriteArrayList<Runnable> tipListeners = new CopyOnWriteArrayList<>();
+
+    // chain started from a snapshot whose blocks below the tip are not validated yet (see SnapshotValidator)
+    private byte[] snapshotBase;
+    private int snapshotHeight;
+    private boolean snapshotInvalid = false;
+    private SnapshotValidator snapshotValidator;
 
     final String genesisCoinbaseData = "The Times 03/Jan/2009 Chancellor on brink of second bailout for banks";
 
     public Blockchain(String address, Db db) {
         Transaction coinbaseTx = new Transaction(address, genesisCoinbaseData);
         Block genesisBlock = new Block(coinbaseTx); // create genesis block
-        Bucket b = db.getBucket("blocks");
         pow.mine(genesisBlock);
 
-        b.put(Utils.toHexString(genesisBlock.getHash()), Utils.toBytes(genesisBlock)); // put genesis block to blockchainCore.blockchain
-        b.put("l", genesisBlock.getHash());
-
         this.db = db;
-        this.tip = genesisBlock.getHash();
-        this.lastHeight = 0;
-        ArrayList<byte[]> blockList = new ArrayList<>();
-
-        if(b.get("h" + genesisBlock.getHeight()) != null)
-            blockList = Utils.toObject(b.get("h" + genesisBlock.getHeight()));
-        blockList.add(genesisBlock.getHash());
-
-        b.put("h" + genesisBlock.getHeight(), Utils.toBytes(blockList));
+        this.coins = new CoinsCache(db);
+        this.txIndex = new TxIndex(this);
+        WriteBatch batch = db.newBatch();
+        int size = putBlock(batch, genesisBlock); // put genesis block to blockchainCore.blockchain
+        batch.put("blocks", "l", genesisBlock.getHash());
 
         UTXOSet utxoSet = new UTXOSet(this);
-        utxoSet.reIndex();
+        utxoSet.reIndex(batch, genesisBlock);
+        txIndex.reIndex(batch, genesisBlock);
+        flushCoins(batch, genesisBlock.getHash());
+        db.write(batch);
+        coins.flushed();
+        blockCache.put(genesisBlock, size);
+
+        this.tip = genesisBlock.getHash();
+        this.lastHeight = 0;
     }
     public Blockchain(Db db) {
         this.db = db;
+        this.coins = new CoinsCache(db);
+        this.txIndex = new TxIndex(this);
         this.tip = new byte[]{};
         this.lastHeight = -1;
+
+        // 저장된 체인이 있으면 이어서 사용
+        byte[] lastHash = db.getBucket("blocks").get("l");
+        if (lastHash != null) {
+            this.tip = lastHash;
+            this.lastHeight = findBlockView(lastHash).getHeight();
+            pow.renewLastHeight(lastHeight);
+
+            // 인덱스 없이 저장된 체인
+            if (txIndex.isEmpty()) txIndex.reIndex();
+
+            byte[] snapshot = db.getBucket("blocks").get("s");
+
+            // 체인 상태가 마지막 블록까지 기록되지 않았음 (flush 전에 종료)
+            UTXOSet utxoSet = new UTXOSet(this);
+            if (utxoSet.needsReIndex() || !catchUpCoins(db.getBucket("blocks").get("c"))) {
+                // 스냅샷 아래 블록이 다 있지 않아서 블록으로 다시 만들 수 없음
+                if (snapshot != null)
+                    throw new IllegalStateException("chainstate can not be rebuilt, the history below the snapshot is not validated");
+                WriteBatch batch = db.newBatch();
+                utxoSet.reIndex(batch, findUTXO());
+                batch.put("blocks", "c", lastHash);
+                db.write(batch);
+            }
+
+            // 스냅샷으로 시작한 체인, 검증 계속
+            if (snapshot != null) startSnapshotValidation(snapshot);
+        }
+    }
+
+    // a new chain on an empty db that starts at the tip of a snapshot.
+    // it is usable at once, the blocks below the tip are validated in the background as they are stored.
+    public static Blockchain fromSnapshot(Db db, ChainstateSnapshot snapshot) {
+        Blockchain bc = new Blockchain(db);
+        bc.loadSnapshot(snapshot);
+        return bc;
+    }
+
+    private void loadSnapshot(ChainstateSnapshot snapshot) {
+        synchronized (mutexAddBlock) {
+            if (tip.length != 0) throw new IllegalStateException("the chain is not empty");
+
+            Block block = snapshot.getTipBlock();
+            byte[] marker = ByteBuffer.allocate(2 * Codec.HASH_SIZE + 4)
+                    .put(block.getHash()).put(snapshot.getContentHash()).putInt(block.getHeight()).array();
+
+            WriteBatch batch = db.newBatch();
+            int size = putBlock(batch, block);
+            batch.put("blocks", "l", block.getHash());
+            batch.put("blocks", "c", block.getHash());
+            batch.put("blocks", "s", marker);
+            new UTXOSet(this).load(batch, snapshot.getEntries());
+            txIndex.connect(block, batch);
+            db.write(batch);
+            blockCache.put(block, size);
+
+            tip = block.getHash();
+            lastHeight = block.getHeight();
+            pow.renewLastHeight(lastHeight);
+            startSnapshotValidation(marker);
+        }
+    }
+
+    // snapshot of the chainstate at the tip, returns its content hash
+    public byte[] exportSnapshot(File file) throws IOException {
+        synchronized (mutexAddBlock) {
+            flush();
+            Bucket chainstate = db.getBucket("chainstate");
+            return ChainstateSnapshot.write(file, readBlock(tip), chainstate.Cursor(), chainstate.count());
+        }
+    }
+
+    // marker : tipHash | contentHash | height
+    private void startSnapshotValidation(byte[] marker) {
+        ByteBuffer buf = ByteBuffer.wrap(marker);
+        snapshotBase = Arrays.copyOfRange(marker, 0, Codec.HASH_SIZE);
+        snapshotHeight = buf.getInt(2 * Codec.HASH_SIZE);
+
+        snapshotValidator = new SnapshotValidator(this, snapshotBase, Arrays.copyOfRange(marker, Codec.HASH_SIZE, 2 * Codec.HASH_SIZE));
+        snapshotValidator.start();
+    }
+
+    void finishSnapshot(WriteBatch batch, boolean valid) {
+        synchronized (mutexAddBlock) {
+            if (!valid) {
+                snapshotInvalid = true;
+                System.out.println("스냅샷 검증 실패 : " + Utils.toHexString(snapshotBase));
+                return;
+            }
+
+            batch.delete("blocks", "s");
+            db.write(batch);
+            snapshotBase = null;
+            System.out.println("스냅샷 검증 완료");
+        }
     }
 
-    public Block mineBlock(Transaction[] transactions) {
+    public boolean isSnapshotPending() { return snapshotBase != null; }
+    public boolean isSnapshotInvalid() { return snapshotInvalid; }
+
+    public Block mineBlock(Transaction[] transactions) { return mineBlock(transactions, pow.getGeneration()); }
+    // generation : getMiningGeneration() read before the transactions were chosen, abortMining() since then
+    // makes this return null without wasting more hashes on them
+    public Block mineBlock(Transaction[] transactions, int generation) {
         Bucket bucket = db.getBucket("blocks");
         byte[] lastHash = bucket.get("l");
-        Block lastBlock = Utils.toObject(bucket.get(Utils.toHexString(lastHash)));
+        BlockView lastBlock = findBlockView(lastHash);
 
         Block newBlock = new Block(transactions, lastHash, lastBlock.getHeight()+1);
-        if(!pow.mine(newBlock)) return null;
+        int bits = nextBits(lastBlock);
+        newBlock.setBits(bits != 0 ? bits : lastBlock.getBits());
+        if(!pow.mine(newBlock, generation)) return null;
 
         if (!addBlock(newBlock))
             return null;
 
         return newBlock;
     }
+    // a block goes through two stages. preValidate runs on the caller's thread without the lock,
+    // so blocks arriving together (each handled on its own network thread) are checked at the same time.
+    // the connect stage under mutexAddBlock then only checks the spent outputs and applies the block.
     public boolean addBlock(Block block) {
         Bucket bucket = db.getBucket("blocks");
+        if (bucket.contains(block.getHash())) return false;
+
+        if (!preValidate(block)) return false;
 
         synchronized (mutexAddBlock) {
-            if (bucket.get(Utils.toHexString(block.getHash())) != null) return false;
+            if (bucket.contains(block.getHash())) return false;
+
+            // 스냅샷 아래의 블록은 저장만 하고 검증은 백그라운드에서
+            if (snapshotBase != null && block.getHeight() < snapshotHeight) {
+                WriteBatch batch = db.newBatch();
+                int size = putBlock(batch, block);
+                db.write(batch);
+                blockCache.put(block, size);
+                return true;
+            }
 
             // 이전 블록이 있는지 검사
-            if (block.getHeight() > 0 && bucket.get(Utils.toHexString(block.getPrevBlockHash())) == null)  { // 고아 블록
+            if (block.getHeight() > 0 && !bucket.contains(block.getPrevBlockHash()))  { // 고아 블록
                 orphanBlocks.put(Utils.toHexString(block.getHash()), block);
                 return false;
             }
 
-            // PoW 검증
-            if (!ProofOfWork.Validate(block)) return false;
+            // 난이도와 시간 검사
+            if (block.getHeight() > 0 && !validHeader(block)) return false;
+
+            // 블록과 체인 상태 변경은 한번에 기록
+            WriteBatch batch = db.newBatch();
 
             // Tx 서명 및 UTXO 검증
             if (Arrays.equals(block.getPrevBlockHash(), tip)) { // 메인 체인 블록
-                if (!validTransaction(block)) return false;
+                // 읽은 출력은 캐시에 남겨 바로 뒤의 update 에서 다시 읽지 않음
+                if (!validTransaction(block, (txId, vout) -> coins.getOutput(batch, txId, vout))) return false;
             }
             else { // 서브 체인 블록
-                HashMap<String, TxOutputs> utxoset = findUTXO(block.getPrevBlockHash());
-                if (!validTransaction(block, utxoset)) return false;
+                UtxoView view = branchView(block.getPrevBlockHash());
+                if (view == null) return false; // 스냅샷 아래에서 갈라진 체인
+                if (!validTransaction(block, view)) return false;
             }
 
             // 블록 추가
-            bucket.put(Utils.toHexString(block.getHash()), Utils.toBytes(block));
-
-            ArrayList<byte[]> blockList = new ArrayList<>();
-            if (bucket.get("h" + block.getHeight()) != null)
-                blockList = Utils.toObject(bucket.get("h" + block.getHeight()));
-            blockList.add(block.getHash());
-            bucket.put("h" + block.getHeight(), Utils.toBytes(blockList));
+            int size = putBlock(batch, block);
 
-            if (block.getHeight() <= lastHeight) return true;
+            if (block.getHeight() <= lastHeight) {
+                db.write(batch);
+                blockCache.put(block, size);
+                return true;
+            }
 
             // 체인 갱신
-            bucket.put("l", block.getHash());
-
-            byte[] prevTip = tip;
-            tip = block.getHash();
+            batch.put("blocks", "l", block.getHash());
 
             UTXOSet utxoSet = new UTXOSet(this);
-            if (!Arrays.equals(prevTip, block.getPrevBlockHash()))  // 체인 변경
-                utxoSet.reIndex();
-            else if (block.getHeight() > 0)  // 체인 유지
-                utxoSet.update(block);
-             else
-                utxoSet.reIndex();
+            boolean reIndexed = false;
+            if (!Arrays.equals(tip, block.getPrevBlockHash())) { // 체인 변경
+                if (!reorganize(batch, block)) {
+                    if (snapshotBase != null) return false; // 검증 전에는 다시 만들 수 없음
+                    utxoSet.reIndex(batch, block);
+                    txIndex.reIndex(batch, block);
+                    reIndexed = true;
+                }
+            }
+            else if (block.getHeight() > 0) { // 체인 유지
+                utxoSet.update(block, batch);
+                txIndex.connect(block, batch);
+            }
+            else {
+                utxoSet.reIndex(batch, block);
+                txIndex.reIndex(batch, block);
+                reIndexed = true;
+            }
+
+            // 체인 상태는 캐시에 모았다가 한번에 기록
+            boolean flush = reIndexed || coins.needsFlush();
+            if (flush) flushCoins(batch, block.getHash());
 
+            db.write(batch);
+            if (flush) coins.flushed();
+            blockCache.put(block, size);
 
+            tip = block.getHash();
             lastHeight = block.getHeight();
             pow.renewLastHeight(lastHeight);
 
         }
 
+        // 새 블록을 알림 (잠금 밖에서)
+        for (Runnable listener : tipListeners) listener.run();
         return true;
     }
 
+    // called after the tip moved, on the thread that added the block
+    public void addTipListener(Runnable listener) { tipListeners.add(listener); }
+    public void removeTipListener(Runnable listener) { tipListeners.remove(listener); }
+
+    public int getMiningGeneration() { return pow.getGeneration(); }
+    public void abortMining() { pow.abort(); }
+    public ProofOfWork getProofOfWork() { return pow; }
+
+    // write the chainstate changes held by the coins cache, e.g. before the db is closed
+    public void flush() {
+        synchronized (mutexAddBlock) {
+            if (tip.length == 0) return;
+
+            WriteBatch batch = db.newBatch();
+            flushCoins(batch, tip);
+            db.write(batch);
+            coins.flushed();
+        }
+    }
+
+    // roll the stored chainstate from the block it was flushed at to the tip, through the coins cache.
+    // false if it has to be rebuilt from the blocks instead
+    private boolean catchUpCoins(byte[] coinsTip) {
+        if (coinsTip == null) return false;
+        if (Arrays.equals(coinsTip, tip)) return true;
+
+        Pair<ArrayList<byte[]>, ArrayList<byte[]>> path = forkPath(coinsTip, tip);
+        if (path == null) return false;
+
+        UTXOSet utxoSet = new UTXOSet(this);
+        for (byte[] hash : path.getKey()) {
+            BlockUndo undo = utxoSet.getUndo(hash);
+            if (undo == null) {
+                coins.clear();
+                return false;
+            }
+            coins.disconnect(readBlock(hash), undo);
+        }
+        for (byte[] hash : path.getValue())
+            coins.connect(readBlock(hash));
+
+        WriteBatch batch = db.newBatch();
+        flushCoins(batch, tip);
+        db.write(batch);
+        coins.flushed();
+        return true;
+    }
+
+    // stop the background work and write what is cached, before the db is closed
+    public void close() {
+        if (snapshotValidator != null) snapshotValidator.close();
+        pow.shutdown();
+        flush();
+    }
+
+    // "c" : the block the stored chainstate is at. coins.flushed() once the batch is written
+    private void flushCoins(WriteBatch batch, byte[] blockHash) {
+        coins.flush(batch);
+        batch.put("blocks", "c", blockHash);
+    }
+
+    // switch the chainstate from the current tip to the branch ending with 'block' :
+    // disconnect the old blocks down to the fork point with their undo records, then connect the new ones.
+    // false if an old block has no undo record (stored by an older version), the caller reindexes then.
+    private boolean reorganize(WriteBatch batch, Block block) {
+        Pair<ArrayList<byte[]>, ArrayList<byte[]>> path = forkPath(tip, block.getPrevBlockHash());
+        if (path == null) return false;
+        ArrayList<byte[]> disconnect = path.getKey();
+        ArrayList<byte[]> connect = path.getValue();
+
+        UTXOSet utxoSet = new UTXOSet(this);
+        for (byte[] hash : disconnect) {
+            if (!utxoSet.hasUndo(hash)) return false;
+        }
+
+        for (byte[] hash : disconnect) {
+            Block old = readBlock(hash);
+            utxoSet.disconnect(old, batch);
+            txIndex.disconnect(old, batch);
+        }
+
+        for (byte[] hash : connect) {
+            Block b = readBlock(hash);
+            utxoSet.update(b, batch);
+            txIndex.connect(b, batch);
+        }
+        utxoSet.update(block, batch);
+        txIndex.connect(block, batch);
+        return true;
+    }
+
+    // chainstate as of the stored block 'branchTip' : the main chainstate with the blocks above the fork point
+    // taken off and the side branch applied, in an overlay. only walks the whole chain if undo records are missing.
+    private UtxoView branchView(byte[] branchTip) {
+        Pair<ArrayList<byte[]>, ArrayList<byte[]>> path = forkPath(tip, branchTip);
+        if (path == null) return null;
+        UTXOSet utxoSet = new UTXOSet(this);
+        UtxoOverlay view = new UtxoOverlay(utxoSet);
+
+        for (byte[] hash : path.getKey()) {
+            BlockUndo undo = utxoSet.getUndo(hash);
+            if (undo == null) return UtxoView.of(findUTXO(branchTip));
+            view.disconnect(readBlock(hash), undo);
+        }
+        for (byte[] hash : path.getValue())
+            view.connect(readBlock(hash));
+        return view;
+    }
+
+    // blocks between the stored blocks 'from' and 'to' :
+    // blocks of 'from' down to the fork point (from first), then the blocks of 'to' up from it (lowest first).
+    // null if a block on the way is missing (below a snapshot)
+    private Pair<ArrayList<byte[]>, ArrayList<byte[]>> forkPath(byte[] from, byte[] to) {
+        BlockView oldView = findBlockView(from);
+        BlockView newView = findBlockView(to);
+        ArrayList<byte[]> disconnect = new ArrayList<>();
+        ArrayList<byte[]> connect = new ArrayList<>();
+
+        while (oldView != null && newView != null && oldView.getHeight() > newView.getHeight()) {
+            disconnect.add(oldView.getHash());
+            oldView = findBlockView(oldView.getPrevBlockHash());
+        }
+        while (oldView != null && newView != null && newView.getHeight() > oldView.getHeight()) {
+            connect.add(newView.getHash());
+            newView = findBlockView(newView.getPrevBlockHash());
+        }
+        while (oldView != null && newView != null && !Arrays.equals(oldView.getHash(), newView.getHash())) {
+            disconnect.add(oldView.getHash());
+            connect.add(newView.getHash());
+            oldView = findBlockView(oldView.getPrevBlockHash());
+            newView = findBlockView(newView.getPrevBlockHash());
+        }
+        if (oldView == null || newView == null) return null;
+
+        Collections.reverse(connect);
+        return new Pair<>(disconnect, connect);
+    }
+
+    private int putBlock(WriteBatch batch, Block block) {
+        byte[] data = block.toBytes();
+        batch.put("blocks", block.getHash(), data);
+
+        // 높이별 블록 목록은 32 byte 해시를 이어 붙여 저장
+        byte[] heightList = batch.get("blocks", "h" + block.getHeight());
+        if (heightList == null) heightList = new byte[0];
+        batch.put("blocks", "h" + block.getHeight(), Utils.bytesConcat(heightList, block.getHash()));
+        return data.length;
+    }
+
+    private ArrayList<byte[]> blocksAtHeight(int height) {
+        ArrayList<byte[]> blockList = new ArrayList<>();
+        byte[] heightList = db.getBucket("blocks").get("h" + height);
+        if (heightList == null) return blockList;
+
+        for (int i = 0; i < heightList.length; i += Codec.HASH_SIZE)
+            blockList.add(Arrays.copyOfRange(heightList, i, i + Codec.HASH_SIZE));
+        return blockList;
+    }
+
     public ConcurrentHashMap<String, Block> getOrphanBlock() { return orphanBlocks; }
     public ArrayList<byte []> addOrphanBlock() {
         Bucket bucket = db.getBucket("blocks");
         ArrayList<byte []> hash = new ArrayList<>();
 
         for (Block b : orphanBlocks.values()) {
-            if (bucket.get(Utils.toHexString(b.getPrevBlockHash())) != null) {
+            if (bucket.contains(b.getPrevBlockHash())) {
                 if (addBlock(b)) {
                     orphanBlocks.remove(Utils.toHexString(b.getHash()));
                     hash.add(b.getHash());
@@ -225,50 +543,135 @@ public class Blockchain {
         return UTXO;
     }
 
-    private boolean validTransaction(Block block){ return validTransaction(block, findUTXO()); }
-    private boolean validTransaction(Block block, HashMap<String, TxOutputs> utxoset) {
+    // bits of the block after 'prev', 0 if the retarget window reaches below a snapshot (not stored yet)
+    public int nextBits(BlockView prev) {
+        int height = prev.getHeight() + 1;
+        if (height % ProofOfWork.RETARGET_INTERVAL != 0) return prev.getBits();
+
+        BlockView first = prev;
+        for (int i = 1; i < ProofOfWork.RETARGET_INTERVAL; i++) {
+            first = findBlockView(first.getPrevBlockHash());
+            if (first == null) return 0;
+        }
+        return ProofOfWork.retarget(prev.getBits(), first.getTimestamp(), prev.getTimestamp());
+    }
+    public int nextBits(byte[] prevHash) { return nextBits(findBlockView(prevHash)); }
+
+    // time not before the parent nor too far ahead, bits the chain expects. the parent is stored
+    boolean validHeader(Block block) {
+        BlockView prev = findBlockView(block.getPrevBlockHash());
+        if (block.getTimestamp() < prev.getTimestamp()) return false;
+        if (block.getTimestamp() > System.currentTimeMillis() + ProofOfWork.MAX_FUTURE_TIME) return false;
+
+        int expected = nextBits(prev);
+        if (expected == 0) return ProofOfWork.canFollow(prev.getBits(), block.getBits(), block.getHeight());
+        return ProofOfWork.Validate(block, expected);
+    }
+
+    // stateless checks : PoW, block structure, and the signatures whose spent output is already known.
+    // those go to the SigCache, so the same checks in the connect stage are only lookups.
+    // an outpoint always names the same output, so one read without the lock is right even if it was spent since
+    private boolean preValidate(Block block) {
+        if (!ProofOfWork.Validate(block)) return false;
+        if (!validStructure(block)) return false;
+
+        UTXOSet utxoSet = new UTXOSet(this);
+        ArrayList<SignatureVerifier.Check> checks = new ArrayList<>();
         for (Transaction tx : block.getTransactions()) {
+            if (tx.isCoinBase()) continue;
+            for (int i = 0; i < tx.getVin().size(); i++) {
+                TxInput vin = tx.getVin().get(i);
+                TxOutput prevOut = utxoSet.getOutput(vin.getTxId(), vin.getvOut());
+                if (prevOut != null) checks.add(new SignatureVerifier.Check(tx, i, prevOut.getPublicKeyHash()));
+            }
+        }
+        // 서명이 틀렸으면 연결할 필요도 없음
+        return verifier.verify(checks);
+    }
+
+    // merkle root matching the transactions, one coinbase, no duplicate transaction, no output spent twice in the block
+    static boolean validStructure(Block block) {
+        Transaction[] txs = block.getTransactions();
+        if (txs == null || txs.length == 0) return false;
+        if (!Arrays.equals(block.getMerkleRoot(), block.computeMerkleRoot())) return false;
+
+        int coinbases = 0;
+        HashSet<ByteBuffer> txIds = new HashSet<>();
+        HashSet<ByteBuffer> spent = new HashSet<>();
+        for (Transaction tx : txs) {
+            if (!txIds.add(ByteBuffer.wrap(tx.getId()))) return false;
+
             if (tx.isCoinBase()) {
-                if (!tx.validCoinbase()) return false;
+                if (++coinbases > 1) return false;
                 continue;
             }
+            if (tx.getVin().isEmpty()) return false;
+            for (TxInput vin : tx.getVin())
+                if (!spent.add(ByteBuffer.wrap(UTXOSet.outpoint(vin.getTxId(), vin.getvOut())))) return false;
+        }
+        return coinbases == 1;
+    }
 
-            if (!verifyTransaction(tx)) return false;
-
-            for (TxInput vin : tx.getVin()) {
-                String txId = Utils.toHexString(vin.getTxId());
-                if (!utxoset.containsKey(txId)) return false;
-                if (!utxoset.get(txId).getOutputs().containsKey(vin.getvOut())) return false;
+    // view : unspent outputs at the parent of block
+    private boolean validTransaction(Block block, UtxoView view) {
+        ArrayList<SignatureVerifier.Check> checks = new ArrayList<>();
+        for (Transaction tx : block.getTransactions()) {
+            if (tx.isCoinBase()) {
+                if (!tx.validCoinbase()) return false;
+                continue;
             }
+
+            if (!signatureChecks(tx, view, checks)) return false;
         }
-        return true;
+        // 서명 검사는 블록 전체를 모아서 병렬로
+        return verifier.verify(checks);
     }
 
     public Block findBlock(byte[] hash) {
-        Bucket bucket = db.getBucket("blocks");
-        byte[] data = bucket.get(Utils.toHexString(hash));
-
-        Block block = null;
-        if (data == null)
+        Block block = readBlock(hash);
+        if (block == null)
             block = orphanBlocks.get(Utils.toHexString(hash));
-        else
-            block = Utils.toObject(data);
         return block;
     }
-    public Transaction findTransaction(byte[] id) {
-        Bucket bucket = db.getBucket("blocks");
 
-        for (int i = lastHeight; i >= 0; i--) {
-            ArrayList<byte[]> blocks = Utils.toObject(bucket.get("h" + i));
-            for (byte[] blockHash : blocks) {
-                Block block = Utils.toObject(bucket.get(Utils.toHexString(blockHash)));
+    // header access and lazy transaction decoding over the stored bytes, null for unknown or orphan blocks
+    public BlockView findBlockView(byte[] hash) {
+        ByteBuffer data = db.getBucket("blocks").getBuffer(hash);
+        return data == null ? null : BlockView.wrap(data);
+    }
 
-                for (Transaction tx : block.getTransactions())
-                    if(Arrays.equals(tx.getId(), id)) return tx;
-            }
-        }
+    public boolean hasBlock(byte[] hash) {
+        return blockCache.contains(hash) || db.getBucket("blocks").contains(hash)
+                || orphanBlocks.containsKey(Utils.toHexString(hash));
+    }
+
+    // stored block, decoded once and then served from the cache
+    private Block readBlock(byte[] hash) {
+        Block block = blockCache.get(hash);
+        if (block != null) return block;
+
+        ByteBuffer data = db.getBucket("blocks").getBuffer(hash);
+        if (data == null) return null;
+
+        int size = data.remaining();
+        block = Block.decode(data);
+        blockCache.put(block, size);
+        return block;
+    }
 
-        return null;
+    // main chain transaction, through the tx index.
+    // a transaction only in a side branch or an orphan block is not found (the old scan found it in any stored block) :
+    // the callers only need the main chain, Node asks for a transaction it does not know yet and serves known ones,
+    // and signatures are checked against the UTXO set or a branch overlay, not through this
+    public Transaction findTransaction(byte[] id) {
+        Pair<byte[], Integer> loc = txIndex.find(id);
+        if (loc == null) return null;
+
+        Block block = blockCache.get(loc.getKey());
+        if (block != null) return block.getTransactions()[loc.getValue()];
+
+        BlockView view = findBlockView(loc.getKey());
+        return view == null ? null : view.getTransaction(loc.getValue());
     }
 
     public Transaction newUTXOTransaction(Wallet wallet, String to, int amount, UTXOSet utxoSet) throws Exception{
@@ -302,42 +705,46 @@ public class Blockchain {
 
         Transaction tx = new Transaction(new byte[]{}, inputs, outputs);
         tx.setId(tx.Hash());
-        utxoSet.getBc().signTransaction(tx, wallet.getPrivateKey());
+        tx.sign(wallet.getPrivateKey(), utxoSet);
         return tx;
     }
+    // spent outputs are read from the UTXO set, no previous transaction is needed
     public void signTransaction(Transaction tx, PrivateKey privateKey) throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
-        HashMap<String, Transaction> prevTxs = new HashMap<>();
-
-        for(TxInput vin : tx.getVin()) {
-            Transaction prevTx = new Transaction(findTransaction(vin.getTxId()));
-            prevTxs.put(Utils.toHexString(prevTx.getId()), prevTx);
-        }
-
-        tx.sign(privateKey, prevTxs);
+        tx.sign(privateKey, new UTXOSet(this));
     }
     public boolean verifyTransaction(Transaction tx) {
         if(tx.isCoinBase()) return true;
 
-        HashMap<String, Transaction> prevTxs = new HashMap<>();
+        ArrayList<SignatureVerifier.Check> checks = new ArrayList<>();
+        if(!signatureChecks(tx, new UTXOSet(this), checks)) return false;
+        return verifier.verify(checks);
+    }
 
-        for(TxInput vin : tx.getVin()) {
-            Transaction prevTx = findTransaction(vin.getTxId());
-            if(prevTx == null) return false;
-            prevTxs.put(Utils.toHexString(prevTx.getId()), prevTx);
-        }
+    // a check per input of tx against the output it spends, false if that output is not unspent in view
+    private boolean signatureChecks(Transaction tx, UtxoView view, ArrayList<SignatureVerifier.Check> checks) {
+        for(int i=0; i<tx.getVin().size(); i++) {
+            TxInput vin = tx.getVin().get(i);
+            TxOutput prevOut = view.getOutput(vin.getTxId(), vin.getvOut());
+            if(prevOut == null) return false;
 
-        return tx.Verify(prevTxs);
+            checks.add(new SignatureVerifier.Check(tx, i, prevOut.getPublicKeyHash()));
+        }
+        return true;
     }
 
     public Db getDb() { return db; }
+    public TxIndex getTxIndex() { return txIndex; }
+    public CoinsCache getCoins() { return coins; }
+    public SignatureVerifier getSignatureVerifier() { return verifier; }
+    public void setSignatureVerifier(SignatureVerifier verifier) { this.verifier = verifier; }
+    public BlockCache getBlockCache() { return blockCache; }
     public byte[] getTip() { return tip; }
     public ArrayList<Block> getBlocks() {
-        Bucket b = db.getBucket("blocks");
         ArrayList<Block> blocks = new ArrayList<>();
         for(int i=0; i<=lastHeight; i++){
-            ArrayList<byte[]> heightToBlocks = Utils.toObject(b.get("h"+i));
+            ArrayList<byte[]> heightToBlocks = blocksAtHeight(i);
             for(int j=0; j<heightToBlocks.size(); j++){
-                blocks.add(Utils.toObject(b.get(Utils.toHexString(heightToBlocks.get(j)))));
+                blocks.add(readBlock(heightToBlocks.get(j)));
             }
         }
 
@@ -346,6 +753,28 @@ public class Blockchain {
 
     public Iterator<Block> iterator() { return iterator(tip); }
     public Iterator<Block> iterator(byte[] tip) { return new BcItr(db, tip); }
+    public Iterator<BlockView> viewIterator() { return viewIterator(tip); }
+    public Iterator<BlockView> viewIterator(byte[] tip) { return new ViewItr(tip); }
+
+    private class ViewItr implements Iterator<BlockView> {
+        private BlockView next;
+
+        public ViewItr(byte[] tip) {
+            this.next = findBlockView(tip);
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public BlockView next() {
+            if (next == null) throw new NoSuchElementException();
+
+            BlockView view = next;
+            next = view.isGenesis() ? null : findBlockView(view.getPrevBlockHash());
+            return view;
+        }
+    }
 
     private class BcItr implements Iterator<Block> {
         private byte[] currentHash;
@@ -357,7 +786,7 @@ public class Blockchain {
         }
 
         public boolean hasNext() {
-            return db.getBucket("blocks").get(Utils.toHexString(currentHash)) != null;
+            return blockCache.contains(currentHash) || db.getBucket("blocks").contains(currentHash);
         }
 
         public void remove() {
@@ -365,7 +794,7 @@ public class Blockchain {
         }
 
         public Block next() {
-            Block block = new Block(db.getBucket("blocks").get(Utils.toHexString(currentHash)));
+            Block block = readBlock(currentHash);
             currentHash = block.getPrevBlockHash();
 
             return block;
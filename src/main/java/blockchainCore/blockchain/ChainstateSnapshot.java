@@ -0,0 +1,141 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.DB.Bucket;
+import blockchainCore.DB.Cursor;
+import blockchainCore.utils.Codec;
+import blockchainCore.utils.Pair;
+import blockchainCore.utils.Utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+// UTXO set of a chain at its tip block, to start a new node without replaying the chain.
+// the importing node only trusts the content hash, the blocks below the tip are checked against it later.
+//
+// file : magic(4) | version(4) | height(4) | tipHash(32) | blockLen(4) | tipBlock
+//        | count(8) | { key(36) | valueLen(4) | value } | contentHash(32)
+// contentHash = sha256 of the entries { key | valueLen | value } in key order
+public class ChainstateSnapshot {
+    private static final int MAGIC = 0x42435553; // "BCUS"
+    private static final int VERSION = 1;
+
+    private final int height;
+    private final byte[] tipHash;
+    private final byte[] tipBlock;
+    private final ArrayList<Pair<byte[], byte[]>> entries;
+    private final byte[] contentHash;
+
+    private ChainstateSnapshot(int height, byte[] tipHash, byte[] tipBlock, ArrayList<Pair<byte[], byte[]>> entries, byte[] contentHash) {
+        this.height = height;
+        this.tipHash = tipHash;
+        this.tipBlock = tipBlock;
+        this.entries = entries;
+        this.contentHash = contentHash;
+    }
+
+    // chainstate : cursor over the flushed chainstate bucket
+    static byte[] write(File file, Block tip, Cursor chainstate, long count) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        MessageDigest md = Utils.newSha256();
+        byte[] contentHash;
+
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            byte[] block = tip.toBytes();
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tip.getHeight());
+            out.write(tip.getHash());
+            out.writeInt(block.length);
+            out.write(block);
+
+            out.writeLong(count);
+            long written = 0;
+            while (chainstate.hasNext()) {
+                Pair<byte[], byte[]> kv = chainstate.next();
+                out.write(kv.getKey());
+                out.writeInt(kv.getValue().length);
+                out.write(kv.getValue());
+                digest(md, kv.getKey(), kv.getValue());
+                written++;
+            }
+            if (written != count) throw new IOException("chainstate changed while exporting");
+
+            contentHash = md.digest();
+            out.write(contentHash);
+            out.flush();
+            fos.getFD().sync();
+        }
+
+        if (!tmp.renameTo(file))
+            throw new IOException("can not replace " + file);
+        return contentHash;
+    }
+
+    public static ChainstateSnapshot read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("unknown snapshot format " + file);
+
+            int height = in.readInt();
+            byte[] tipHash = new byte[Codec.HASH_SIZE];
+            in.readFully(tipHash);
+            byte[] tipBlock = new byte[in.readInt()];
+            in.readFully(tipBlock);
+
+            long count = in.readLong();
+            ArrayList<Pair<byte[], byte[]>> entries = new ArrayList<>();
+            MessageDigest md = Utils.newSha256();
+            byte[] last = null;
+            for (long i = 0; i < count; i++) {
+                byte[] key = new byte[Codec.HASH_SIZE + 4];
+                in.readFully(key);
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+
+                if (last != null && Bucket.compare(last, key) >= 0)
+                    throw new IOException("snapshot entries out of order " + file);
+                last = key;
+
+                entries.add(new Pair<>(key, value));
+                digest(md, key, value);
+            }
+
+            byte[] contentHash = new byte[Codec.HASH_SIZE];
+            in.readFully(contentHash);
+            if (!Arrays.equals(md.digest(), contentHash))
+                throw new IOException("corrupted snapshot " + file);
+
+            ChainstateSnapshot snapshot = new ChainstateSnapshot(height, tipHash, tipBlock, entries, contentHash);
+            Block tip = snapshot.getTipBlock();
+            if (tip.getHeight() != height || !Arrays.equals(tip.getHash(), tipHash))
+                throw new IOException("snapshot tip does not match its header " + file);
+            return snapshot;
+        }
+    }
+
+    // content hash of a UTXO set, entries in key order
+    static byte[] contentHash(Iterable<Map.Entry<byte[], byte[]>> entries) {
+        MessageDigest md = Utils.newSha256();
+        for (Map.Entry<byte[], byte[]> e : entries)
+            digest(md, e.getKey(), e.getValue());
+        return md.digest();
+    }
+
+    private static void digest(MessageDigest md, byte[] key, byte[] value) {
+        md.update(key);
+        md.update(ByteBuffer.allocate(4).putInt(value.length).array());
+        md.update(value);
+    }
+
+    public int getHeight() { return height; }
+    public byte[] getTipHash() { return tipHash; }
+    public Block getTipBlock() { return Block.decode(ByteBuffer.wrap(tipBlock)); }
+    public ArrayList<Pair<byte[], byte[]>> getEntries() { return entries; }
+    public byte[] getContentHash() { return contentHash; }
+}
@@ -0,0 +1,120 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.DB.Bucket;
+import blockchainCore.DB.WriteBatch;
+import blockchainCore.blockchain.consensus.ProofOfWork;
+import blockchainCore.blockchain.transaction.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// background check of a chain started from a snapshot.
+// once every block below the snapshot tip is stored, they are replayed from genesis with full validation
+// and the UTXO set they produce is compared with the content hash of the snapshot.
+// on success their undo records and tx index entries are written, and the chain is like one synced from genesis.
+class SnapshotValidator extends Thread {
+    private static final long POLL_INTERVAL = 200L;
+
+    private final Blockchain bc;
+    private final byte[] base;
+    private final byte[] contentHash;
+    private volatile boolean stop = false;
+
+    // blocks found so far going down from the snapshot tip, and the hash of the next one to look for
+    private final ArrayList<byte[]> walked = new ArrayList<>();
+    private byte[] next;
+
+    SnapshotValidator(Blockchain bc, byte[] base, byte[] contentHash) {
+        this.bc = bc;
+        this.base = base;
+        this.contentHash = contentHash;
+        this.next = base;
+        setDaemon(true);
+        setName("snapshot-validator");
+    }
+
+    @Override
+    public void run() {
+        while (!stop) {
+            ArrayList<byte[]> history = history();
+            if (history != null) {
+                WriteBatch batch = bc.getDb().newBatch();
+                boolean valid = validate(history, batch);
+                if (!stop) bc.finishSnapshot(batch, valid);
+                return;
+            }
+            try { sleep(POLL_INTERVAL); } catch (InterruptedException ignored) {}
+        }
+    }
+
+    void close() {
+        stop = true;
+        interrupt();
+    }
+
+    // hashes from genesis up to the snapshot tip, null while some are still missing.
+    // the walk goes on from the first missing block of the last poll, every stored block is read once
+    private ArrayList<byte[]> history() {
+        while (true) {
+            BlockView view = bc.findBlockView(next);
+            if (view == null) return null;
+
+            walked.add(view.getHash());
+            if (view.isGenesis()) {
+                ArrayList<byte[]> hashes = new ArrayList<>(walked);
+                Collections.reverse(hashes);
+                return hashes;
+            }
+            next = view.getPrevBlockHash();
+        }
+    }
+
+    private boolean validate(ArrayList<byte[]> history, WriteBatch batch) {
+        HashMap<ByteBuffer, TxOutput> utxo = new HashMap<>();
+
+        UTXOSet utxoSet = new UTXOSet(bc);
+        TxIndex txIndex = bc.getTxIndex();
+        SignatureVerifier verifier = bc.getSignatureVerifier();
+        byte[] prev = new byte[0];
+
+        for (int height = 0; height < history.size(); height++) {
+            Block block = bc.findBlock(history.get(height));
+            if (block.getHeight() != height || !Arrays.equals(block.getPrevBlockHash(), prev)) return false;
+            if (!ProofOfWork.Validate(block) || !Blockchain.validStructure(block)) return false;
+            if (height > 0 && !bc.validHeader(block)) return false;
+
+            // inputs against the outputs of the parent only, like the connect path :
+            // an output created in the same block can not be spent by it
+            BlockUndo undo = new BlockUndo();
+            ArrayList<SignatureVerifier.Check> checks = new ArrayList<>();
+            for (Transaction tx : block.getTransactions()) {
+                if (tx.isCoinBase()) {
+                    if (!tx.validCoinbase()) return false;
+                    continue;
+                }
+                for (int i = 0; i < tx.getVin().size(); i++) {
+                    TxInput vin = tx.getVin().get(i);
+                    TxOutput out = utxo.remove(outpoint(vin.getTxId(), vin.getvOut()));
+                    if (out == null) return false; // missing or already spent
+                    checks.add(new SignatureVerifier.Check(tx, i, out.getPublicKeyHash()));
+                    undo.add(vin.getTxId(), vin.getvOut(), out);
+                }
+            }
+            for (Transaction tx : block.getTransactions())
+                for (int i = 0; i < tx.getVout().size(); i++)
+                    utxo.put(outpoint(tx.getId(), i), tx.getVout().get(i));
+            if (!verifier.verify(checks)) return false;
+
+            utxoSet.putUndo(batch, block.getHash(), undo);
+            txIndex.connect(block, batch);
+            prev = block.getHash();
+        }
+
+        TreeMap<byte[], byte[]> entries = new TreeMap<>(Bucket.KEY_ORDER);
+        for (Map.Entry<ByteBuffer, TxOutput> e : utxo.entrySet())
+            entries.put(e.getKey().array(), UTXOSet.encodeOutput(e.getValue()));
+        return Arrays.equals(ChainstateSnapshot.contentHash(entries.entrySet()), contentHash);
+    }
+
+    private static ByteBuffer outpoint(byte[] txId, int vout) { return ByteBuffer.wrap(UTXOSet.outpoint(txId, vout)); }
+}
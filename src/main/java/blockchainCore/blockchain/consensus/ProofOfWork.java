@@ -4,49 +4,268 @@ import blockchainCore.blockchain.Block;
 import blockchainCore.utils.Utils;
 
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+// a block hash must be below the target of the block, stored in its header in compact form ('bits').
+// bits = exponent(1 byte) | mantissa(3 bytes), target = mantissa * 256^(exponent - 3).
+// every RETARGET_INTERVAL blocks the target is scaled by how long the last interval took against
+// TARGET_SPACING per block (at most 4 times either way), the blocks in between keep the bits of their parent.
 public class ProofOfWork {
-    static final int targetBits = 0;
-    static final BigInteger target = new BigInteger("1").shiftLeft(256-targetBits);
-    private int lastHeight = -1;
+    public static final int RETARGET_INTERVAL = 10;
+    public static final long TARGET_SPACING = 1000L; // ms
+    // how far ahead of the local clock a block time may be
+    public static final long MAX_FUTURE_TIME = 2 * 60 * 1000L;
 
-    private static byte[] prepareData(Block block, int nonce) {
-        return Utils.bytesConcat(block.getBytesExceptHash(), Integer.toString(targetBits).getBytes(), Integer.toString(nonce).getBytes());
+    // easiest target, almost every hash is below it. the genesis block and the first window use it
+    public static final int LIMIT_BITS = 0x2100ffff;
+    private static final BigInteger LIMIT = decodeBits(LIMIT_BITS);
+
+    private static final long NONCE_SPACE = 1L << 32;
+
+    // height of the chain tip, a search for a block not above it is abandoned
+    private volatile int lastHeight = -1;
+    // bumped by abort(), a search started before is abandoned
+    private volatile int generation = 0;
+
+    // nonce search threads, created once and kept for the next blocks
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService workers;
+
+    private final AtomicLong totalHashes = new AtomicLong();
+    private volatile long lastHashes = 0, lastNanos = 0;
+
+    // sha256(header | nonce), header : Block.getBytesExceptHash(), nonce : 4 bytes big endian
+    private static byte[] hash(byte[] header, int nonce) {
+        MessageDigest md = Utils.sha256Digest();
+        md.update(header);
+        md.update((byte) (nonce >>> 24));
+        md.update((byte) (nonce >>> 16));
+        md.update((byte) (nonce >>> 8));
+        md.update((byte) nonce);
+        return md.digest();
     }
 
-    public boolean mine(Block block) {
-        //System.out.println("Mining the block containg," + block.getData());
-        byte[] hash = new byte[0];
-        int nonce = 0;
+    // the 2^32 nonces are split over the threads (worker i tries i, i + threads, ...).
+    // the first thread to find one stops the others. when no nonce works the timestamp
+    // is moved forward and the search starts over with the new header.
+    // false if a block at this height or above was connected meanwhile (see renewLastHeight)
+    // or abort() was called after 'generation' was read, or the calling thread was interrupted
+    public boolean mine(Block block) { return mine(block, generation); }
+    public boolean mine(Block block, int generation) {
+        long start = System.nanoTime();
+        AtomicLong hashes = new AtomicLong();
+        AtomicReference<Found> found = new AtomicReference<>();
 
-        while(nonce < Integer.MAX_VALUE) {
-            // 새로운 블록이 오거나 최장길이 갱신시.
-            if (block.getHeight() <= lastHeight) return false;
+        try {
+            while (found.get() == null) {
+                // 새로운 블록이 오거나 최장길이 갱신시.
+                if (isStale(block.getHeight(), generation)) return false;
 
-            byte[] data = prepareData(block, nonce);
-            hash = Utils.sha256(data);
-            // System.out.printf("\r%s", Utils.toHexString(hash));
+                byte[] header = block.getBytesExceptHash();
+                long[] target = targetWords(decodeBits(block.getBits()));
+                if (threads == 1) search(header, target, block.getHeight(), generation, 0, 1, found, hashes);
+                else if (!searchParallel(header, target, block.getHeight(), generation, found, hashes)) return false;
+                if (found.get() == null && isStale(block.getHeight(), generation)) return false;
+                // search() 는 인터럽트되면 결과 없이 끝남
+                if (found.get() == null && Thread.currentThread().isInterrupted()) return false;
 
-            BigInteger bihash = new BigInteger(1, hash);
-            if( bihash.compareTo(target) == -1 ) break;
-            else nonce++;
+                // nonce 를 다 써서 시간 변경
+                if (found.get() == null)
+                    block.setTimestamp(Math.max(System.currentTimeMillis(), block.getTimestamp() + 1));
+            }
+        } finally {
+            lastHashes = hashes.get();
+            lastNanos = System.nanoTime() - start;
+            totalHashes.addAndGet(lastHashes);
         }
         lastHeight = block.getHeight();
 
-        block.setHash(hash);
-        block.setNonce(nonce);
-        // System.out.println();System.out.println();
+        block.setHash(found.get().hash);
+        block.setNonce(found.get().nonce);
         return true;
     }
 
+    // false if the calling thread was interrupted
+    private boolean searchParallel(byte[] header, long[] target, int height, int generation, AtomicReference<Found> found, AtomicLong hashes) {
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int first = i;
+            tasks.add(() -> {
+                search(header, target, height, generation, first, threads, found, hashes);
+                return null;
+            });
+        }
+
+        try {
+            workers().invokeAll(tasks);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // 남은 작업은 invokeAll 이 취소
+            return false;
+        }
+    }
+
+    // the header is serialized once per search into a buffer with room for the nonce.
+    // a nonce only patches its 4 bytes, hashes the buffer into a reused array and compares it by words,
+    // nothing is allocated in the loop.
+    // the buffer is hashed whole rather than from a midstate of its first 64 bytes : the JDK digest
+    // (hardware accelerated) does both blocks faster than a java SHA-256 that can restore a midstate does one
+    private void search(byte[] header, long[] target, int height, int generation, int first, int step, AtomicReference<Found> found, AtomicLong hashes) {
+        byte[] buf = Arrays.copyOf(header, header.length + 4);
+        int noncePos = header.length;
+        byte[] hash = new byte[Utils.SHA256_SIZE];
+
+        long tried = 0;
+        for (long n = first; n < NONCE_SPACE; n += step) {
+            if (found.get() != null || isStale(height, generation)) break;
+            if ((tried & 0xfff) == 0 && Thread.currentThread().isInterrupted()) break;
+
+            buf[noncePos] = (byte) (n >>> 24);
+            buf[noncePos + 1] = (byte) (n >>> 16);
+            buf[noncePos + 2] = (byte) (n >>> 8);
+            buf[noncePos + 3] = (byte) n;
+
+            Utils.sha256(buf, hash, 0);
+            tried++;
+
+            if (belowTarget(hash, target)) {
+                found.compareAndSet(null, new Found((int) n, hash.clone()));
+                break;
+            }
+        }
+        hashes.addAndGet(tried);
+    }
+
+    private static boolean belowTarget(byte[] hash, long[] target) {
+        for (int i = 0; i < 4; i++) {
+            int c = Long.compareUnsigned(word(hash, i), target[i]);
+            if (c != 0) return c < 0;
+        }
+        return false;
+    }
+
+    // i-th big endian 8 byte word of a hash
+    private static long word(byte[] hash, int i) {
+        long w = 0;
+        for (int j = i * 8; j < i * 8 + 8; j++)
+            w = (w << 8) | (hash[j] & 0xff);
+        return w;
+    }
+
+    // target as 4 big endian words, it is below 2^256
+    private static long[] targetWords(BigInteger target) {
+        long[] words = new long[4];
+        for (int i = 0; i < 4; i++)
+            words[3 - i] = target.shiftRight(64 * i).longValue();
+        return words;
+    }
+
+    public static BigInteger decodeBits(int bits) {
+        int exponent = bits >>> 24;
+        BigInteger mantissa = BigInteger.valueOf(bits & 0x7fffff);
+        return exponent <= 3 ? mantissa.shiftRight(8 * (3 - exponent)) : mantissa.shiftLeft(8 * (exponent - 3));
+    }
+
+    public static int encodeBits(BigInteger target) {
+        int size = (target.bitLength() + 7) / 8;
+        long mantissa = size <= 3 ? target.longValue() << 8 * (3 - size) : target.shiftRight(8 * (size - 3)).longValue();
+        // the top mantissa bit would read as a sign
+        if ((mantissa & 0x800000) != 0) {
+            mantissa >>>= 8;
+            size++;
+        }
+        return (size << 24) | (int) mantissa;
+    }
+
+    // bits of the block after 'last', at the end of a window whose first block has time 'firstTime'
+    public static int retarget(int lastBits, long firstTime, long lastTime) {
+        long expected = TARGET_SPACING * (RETARGET_INTERVAL - 1);
+        long actual = Math.max(expected / 4, Math.min(expected * 4, lastTime - firstTime));
+
+        BigInteger target = decodeBits(lastBits).multiply(BigInteger.valueOf(actual)).divide(BigInteger.valueOf(expected));
+        if (target.compareTo(LIMIT) > 0) target = LIMIT;
+        return encodeBits(target);
+    }
+
+    // whether a block at 'height' may have 'bits' after a parent with 'parentBits', when the window is not
+    // all stored (below a snapshot) and the exact value can not be computed
+    public static boolean canFollow(int parentBits, int bits, int height) {
+        if (height % RETARGET_INTERVAL != 0) return bits == parentBits;
+
+        BigInteger parent = decodeBits(parentBits), target = decodeBits(bits);
+        BigInteger easiest = parent.shiftLeft(2).min(LIMIT);
+        return target.compareTo(parent.shiftRight(2)) >= 0 && target.compareTo(easiest) <= 0;
+    }
+
+    private synchronized ExecutorService workers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "pow-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return workers;
+    }
+
+    private boolean isStale(int height, int generation) { return height <= lastHeight || generation != this.generation; }
+
     public void renewLastHeight(int height) { lastHeight = height; }
 
+    // stop the running search, e.g. the block it mines is outdated. the workers see it at their next nonce
+    public void abort() { generation++; }
+    public int getGeneration() { return generation; }
+
+    // takes effect from the next block, not while mining
+    public synchronized void setThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads " + threads);
+        if (workers != null) workers.shutdown();
+        workers = null;
+        this.threads = threads;
+    }
+    public int getThreads() { return threads; }
+
+    // abandon the running search and stop the worker threads. a later mine() starts new ones
+    public synchronized void shutdown() {
+        abort();
+        if (workers != null) workers.shutdownNow();
+        workers = null;
+    }
+
+    // hashes per second of the last mine call
+    public double getHashRate() { return lastNanos == 0 ? 0 : lastHashes * 1e9 / lastNanos; }
+    public long getTotalHashes() { return totalHashes.get(); }
+
+    private static class Found {
+        final int nonce;
+        final byte[] hash;
+
+        Found(int nonce, byte[] hash) {
+            this.nonce = nonce;
+            this.hash = hash;
+        }
+    }
+
+    // hash of the header, below the target of the block's own bits
     public static boolean Validate(Block block){
-        BigInteger bihash = new BigInteger(1, block.getHash());
-        byte[] data = prepareData(block, block.getNonce());
-        byte[] hash = Utils.sha256(data);
+        BigInteger target = decodeBits(block.getBits());
+        if (target.signum() <= 0 || target.compareTo(LIMIT) > 0) return false;
 
-        if( bihash.compareTo(target) == -1 ) return true;
-        return false;
+        byte[] hash = hash(block.getBytesExceptHash(), block.getNonce());
+        if (!Arrays.equals(hash, block.getHash())) return false; // 헤더와 맞지 않는 해시
+
+        return belowTarget(hash, targetWords(target));
+    }
+
+    // and the bits are the ones the chain expects at this block
+    public static boolean Validate(Block block, int expectedBits) {
+        return block.getBits() == expectedBits && Validate(block);
     }
 }
@@ -1,32 +1,75 @@
 package blockchainCore.blockchain.merkletree;
 
+import blockchainCore.utils.Utils;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
 
+// merkle tree over leaf hashes, kept as one array of hashes per level (levels.get(0) : leaves).
+// a node is sha256(left | right), a level with an odd count pairs its last node with itself.
+// large levels are hashed in parallel, each worker has its own digest (Utils.sha256Concat).
 public class MerkleTree {
-    MerkleNode rootNode;
+    // pairs in a level from which it is hashed on the common pool
+    static final int PARALLEL_THRESHOLD = 512;
+    // transactions from which a block hashes its leaves on the common pool
+    public static final int PARALLEL_LEAVES = 256;
 
-    public MerkleTree(ArrayList<byte[]> data) {
-        ArrayList<MerkleNode> nodes = new ArrayList<>();
+    private final ArrayList<byte[][]> levels = new ArrayList<>();
 
-        if(data.size() % 2 != 0) {
-            data.add(data.get(data.size()-1));
-        }
+    public MerkleTree(List<byte[]> leaves) {
+        if (leaves.isEmpty()) throw new IllegalArgumentException("merkle tree of nothing");
 
-        for(byte[] datum : data) {
-            MerkleNode node = new MerkleNode(null, null, datum);
-            nodes.add(node);
+        byte[][] level = leaves.toArray(new byte[0][]);
+        levels.add(level);
+        while (level.length > 1) {
+            level = nextLevel(level);
+            levels.add(level);
         }
+    }
+
+    private static byte[][] nextLevel(byte[][] level) {
+        int pairs = (level.length + 1) / 2;
+        byte[][] next = new byte[pairs][];
+
+        IntStream range = IntStream.range(0, pairs);
+        if (pairs >= PARALLEL_THRESHOLD) range = range.parallel();
+        range.forEach(i -> {
+            byte[] left = level[2 * i];
+            byte[] right = 2 * i + 1 < level.length ? level[2 * i + 1] : left;
+            next[i] = Utils.sha256Concat(left, right);
+        });
+        return next;
+    }
 
-        for(int i=0; i<data.size()/2; i++) {
-            ArrayList<MerkleNode> newLevel = new ArrayList<>();
+    public byte[] getRoot() { return levels.get(levels.size() - 1)[0]; }
 
-            for(int j=0; j<nodes.size(); j+=2) {
-                MerkleNode node = new MerkleNode(nodes.get(j), nodes.get(j+1), null);
-                newLevel.add(node);
-            }
-            nodes = newLevel;
+    public int size() { return levels.get(0).length; }
+
+    // sibling hashes from leaf 'index' up to the root
+    public byte[][] getProof(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("leaf " + index + " of " + size());
+
+        byte[][] proof = new byte[levels.size() - 1][];
+        for (int depth = 0; depth < proof.length; depth++) {
+            byte[][] level = levels.get(depth);
+            int sibling = index ^ 1;
+            proof[depth] = sibling < level.length ? level[sibling] : level[index];
+            index >>= 1;
         }
+        return proof;
+    }
 
-        rootNode = nodes.get(0);
+    // whether 'leaf' is leaf 'index' of the tree with 'root'
+    public static boolean verifyProof(byte[] leaf, int index, byte[][] proof, byte[] root) {
+        byte[] hash = leaf;
+        for (byte[] sibling : proof) {
+            hash = (index & 1) == 0 ? Utils.sha256Concat(hash, sibling) : Utils.sha256Concat(sibling, hash);
+            index >>= 1;
+        }
+        return index == 0 && Arrays.equals(hash, root);
     }
+
+    public static byte[] root(List<byte[]> leaves) { return new MerkleTree(leaves).getRoot(); }
 }
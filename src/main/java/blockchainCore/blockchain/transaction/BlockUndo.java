@@ -0,0 +1,51 @@
+package blockchainCore.blockchain.transaction;
+
+import blockchainCore.utils.Codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+// outputs a block spent, in the order it spent them. enough to disconnect the block again.
+//
+// record : count | { txid | vout | spent output }...
+public class BlockUndo {
+    private final ArrayList<byte[]> txIds = new ArrayList<>();
+    private final ArrayList<Integer> vouts = new ArrayList<>();
+    private final ArrayList<TxOutput> outputs = new ArrayList<>();
+
+    public void add(byte[] txId, int vout, TxOutput spent) {
+        txIds.add(txId);
+        vouts.add(vout);
+        outputs.add(spent);
+    }
+
+    public int size() { return txIds.size(); }
+    public byte[] getTxId(int i) { return txIds.get(i); }
+    public int getvOut(int i) { return vouts.get(i); }
+    public TxOutput getOutput(int i) { return outputs.get(i); }
+
+    public byte[] toBytes() {
+        int size = Codec.varIntSize(size());
+        for (int i = 0; i < size(); i++)
+            size += Codec.HASH_SIZE + Codec.varIntSize(vouts.get(i)) + outputs.get(i).encodedSize();
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        Codec.putVarInt(buf, size());
+        for (int i = 0; i < size(); i++) {
+            Codec.putHash(buf, txIds.get(i));
+            Codec.putVarInt(buf, vouts.get(i));
+            outputs.get(i).encode(buf);
+        }
+        return buf.array();
+    }
+
+    public static BlockUndo fromBytes(byte[] b) {
+        ByteBuffer buf = ByteBuffer.wrap(b);
+        BlockUndo undo = new BlockUndo();
+
+        int count = Codec.getVarInt(buf);
+        for (int i = 0; i < count; i++)
+            undo.add(Codec.getHash(buf), Codec.getVarInt(buf), TxOutput.decode(buf));
+        return undo;
+    }
+}
@@ -0,0 +1,163 @@
+package blockchainCore.blockchain.transaction;
+
+import blockchainCore.DB.Db;
+import blockchainCore.DB.WriteBatch;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+// write-back cache of decoded unspent outputs over the chainstate bucket.
+// spends and creations only mark entries dirty, flush() writes them to a batch at once
+// and flushed() marks them clean after that batch is committed.
+// an output created and spent again between two flushes never reaches the bucket.
+//
+// the bucket lags behind the cache until the next flush, the chain keeps the block it was flushed at
+// so a restart can tell whether the stored chainstate is behind.
+public class CoinsCache implements MutableUtxoView {
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL = 60_000L;
+    // rough heap cost of an entry : key buffer, output, pubKeyHash and map node
+    private static final int ENTRY_BYTES = 200;
+
+    private final String utxoBucket = "chainstate";
+    private final Db db;
+    private final HashMap<ByteBuffer, Entry> entries = new HashMap<>();
+    // dirty entries written by the last flush(b), not committed yet
+    private final HashMap<ByteBuffer, Entry> written = new HashMap<>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long lastFlush = System.currentTimeMillis();
+    private int dirty = 0;
+    private long hits = 0, misses = 0, flushes = 0;
+
+    public CoinsCache(Db db) {
+        this.db = db;
+    }
+
+    @Override
+    public TxOutput getOutput(byte[] txId, int vout) { return getOutput(null, txId, vout); }
+
+    // a miss reads through 'b' when a batch is being built (under the chain lock) and keeps the output.
+    // without a batch the caller may not hold the lock, and the store can be behind a flush that is
+    // not written yet, so the output read from it is returned but not kept
+    public synchronized TxOutput getOutput(WriteBatch b, byte[] txId, int vout) {
+        ByteBuffer key = ByteBuffer.wrap(UTXOSet.outpoint(txId, vout));
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+            return entry.out;
+        }
+        misses++;
+
+        byte[] stored = b != null ? b.get(utxoBucket, key.array()) : db.getBucket(utxoBucket).get(key.array());
+        if (stored == null) return null;
+
+        TxOutput out = UTXOSet.decodeOutput(stored);
+        if (b != null) entries.put(key, new Entry(out, false, false));
+        return out;
+    }
+
+    @Override
+    public void add(byte[] txId, int vout, TxOutput out) { add(txId, vout, out, false); }
+
+    // fresh : the output can not be in the bucket (created by a block being connected)
+    public synchronized void add(byte[] txId, int vout, TxOutput out, boolean fresh) {
+        ByteBuffer key = ByteBuffer.wrap(UTXOSet.outpoint(txId, vout));
+        Entry old = entries.get(key);
+        if (old != null) fresh = old.fresh;
+        put(key, old, new Entry(out, true, fresh));
+    }
+
+    @Override
+    public synchronized void spend(byte[] txId, int vout) {
+        ByteBuffer key = ByteBuffer.wrap(UTXOSet.outpoint(txId, vout));
+        Entry old = entries.get(key);
+
+        // never written, nothing to delete
+        if (old != null && old.fresh) {
+            entries.remove(key);
+            if (old.dirty) dirty--;
+            return;
+        }
+        put(key, old, new Entry(null, true, false));
+    }
+
+    private void put(ByteBuffer key, Entry old, Entry entry) {
+        if (old != null && old.dirty) dirty--;
+        if (entry.dirty) dirty++;
+        entries.put(key, entry);
+    }
+
+    public synchronized boolean needsFlush() {
+        return bytes() >= maxBytes || (dirty > 0 && System.currentTimeMillis() - lastFlush >= flushInterval);
+    }
+
+    // write the dirty entries to b. the cache is left as it is until flushed() is called once b is committed :
+    // until then the bucket does not hold them, and readers without the lock must still find them here
+    public synchronized void flush(WriteBatch b) {
+        written.clear();
+        for (Map.Entry<ByteBuffer, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (!entry.dirty) continue;
+
+            if (entry.out == null) {
+                b.delete(utxoBucket, e.getKey().array());
+            } else {
+                b.put(utxoBucket, e.getKey().array(), UTXOSet.encodeOutput(entry.out));
+                // on its way to the bucket, a spend from now on has to delete it
+                if (entry.fresh) e.setValue(entry = new Entry(entry.out, true, false));
+            }
+            written.put(e.getKey(), entry);
+        }
+    }
+
+    // the batch of the last flush(b) is committed : its entries are clean now, spent ones are dropped.
+    // the clean entries are let go if the cache is over its budget
+    public synchronized void flushed() {
+        for (Map.Entry<ByteBuffer, Entry> e : written.entrySet()) {
+            Entry entry = e.getValue();
+            if (entries.get(e.getKey()) != entry) continue; // changed again since, still dirty
+
+            if (entry.out == null) entries.remove(e.getKey());
+            else entries.put(e.getKey(), new Entry(entry.out, false, false));
+            dirty--;
+        }
+        written.clear();
+        flushes++;
+        lastFlush = System.currentTimeMillis();
+
+        if (bytes() >= maxBytes) entries.values().removeIf(entry -> !entry.dirty);
+    }
+
+    // forget everything, the bucket is rewritten by the caller
+    public synchronized void clear() {
+        entries.clear();
+        written.clear();
+        dirty = 0;
+    }
+
+    public synchronized long bytes() { return (long) entries.size() * ENTRY_BYTES; }
+    public synchronized int size() { return entries.size(); }
+    public synchronized int getDirty() { return dirty; }
+    public synchronized void setMaxBytes(long maxBytes) { this.maxBytes = maxBytes; }
+    public synchronized void setFlushInterval(long flushInterval) { this.flushInterval = flushInterval; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CoinsCache{entries=%d, dirty=%d, bytes=%d/%d, hits=%d, misses=%d, flushes=%d}",
+                entries.size(), dirty, bytes(), maxBytes, hits, misses, flushes);
+    }
+
+    private static class Entry {
+        final TxOutput out; // null : spent
+        final boolean dirty;
+        final boolean fresh;
+
+        Entry(TxOutput out, boolean dirty, boolean fresh) {
+            this.out = out;
+            this.dirty = dirty;
+            this.fresh = fresh;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package blockchainCore.blockchain.transaction;
+
+import blockchainCore.blockchain.Block;
+
+import java.util.ArrayList;
+
+// a view whole blocks can be applied to and taken off again
+public interface MutableUtxoView extends UtxoView {
+    void spend(byte[] txId, int vout);
+    void add(byte[] txId, int vout, TxOutput out);
+
+    // apply a block on top of the view
+    default void connect(Block block) {
+        for (Transaction tx : block.getTransactions()) {
+            if (!tx.isCoinBase()) {
+                for (TxInput vin : tx.getVin())
+                    spend(vin.getTxId(), vin.getvOut());
+            }
+
+            ArrayList<TxOutput> vouts = tx.getVout();
+            for (int i = 0; i < vouts.size(); i++)
+                add(tx.getId(), i, vouts.get(i));
+        }
+    }
+
+    // take the tip block off the view again
+    default void disconnect(Block block, BlockUndo undo) {
+        for (int i = 0; i < undo.size(); i++)
+            add(undo.getTxId(i), undo.getvOut(i), undo.getOutput(i));
+
+        // after the restore, outputs created and spent inside the block are gone again
+        for (Transaction tx : block.getTransactions()) {
+            for (int i = 0; i < tx.getVout().size(); i++)
+                spend(tx.getId(), i);
+        }
+    }
+}
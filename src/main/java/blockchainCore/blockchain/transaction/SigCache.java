@@ -0,0 +1,62 @@
+package blockchainCore.blockchain.transaction;
+
+import blockchainCore.utils.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// signatures that already verified, keyed by sha256(sigHash | encoded pubKey | signature).
+// a transaction checked when it enters the pool is not checked again when its block is validated.
+// only valid signatures are kept, so a peer sending bad ones can not fill it. LRU bounded by entry count.
+public class SigCache {
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private static final SigCache shared = new SigCache(DEFAULT_MAX_ENTRIES);
+
+    private final int maxEntries;
+    private long hits = 0, misses = 0;
+
+    private final LinkedHashMap<ByteBuffer, Boolean> entries = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    public SigCache() { this(DEFAULT_MAX_ENTRIES); }
+    public SigCache(int maxEntries) { this.maxEntries = maxEntries; }
+
+    // cache used when none is given
+    public static SigCache getShared() { return shared; }
+
+    // pubKey and signature are DER encoded, so their concatenation is unambiguous
+    public static byte[] key(byte[] sigHash, byte[] pubKey, byte[] signature) {
+        return Utils.sha256Concat(sigHash, pubKey, signature);
+    }
+
+    public synchronized boolean contains(byte[] key) {
+        if (entries.get(ByteBuffer.wrap(key)) != null) {
+            hits++;
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    public synchronized void add(byte[] key) {
+        entries.put(ByteBuffer.wrap(key), Boolean.TRUE);
+    }
+
+    public synchronized void clear() { entries.clear(); }
+
+    public synchronized int size() { return entries.size(); }
+    public int getMaxEntries() { return maxEntries; }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("SigCache{entries=%d/%d, hits=%d, misses=%d}", entries.size(), maxEntries, hits, misses);
+    }
+}
@@ -0,0 +1,131 @@
+package blockchainCore.blockchain.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// signature checks of a block (or a transaction), fanned out over an executor.
+// the inputs are split into a few chunks per thread, a chunk stops as soon as any check has failed.
+// the result is the AND of every check, so it does not depend on the order the chunks run in.
+public class SignatureVerifier {
+    // below this many inputs the checks run on the calling thread
+    private static final int MIN_PARALLEL = 4;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private SigCache sigCache = SigCache.getShared();
+
+    private final AtomicLong batches = new AtomicLong(), signatures = new AtomicLong(), failures = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong(), lastNanos = new AtomicLong();
+
+    // checks on the common pool, shared by every chain in the process and never shut down
+    public SignatureVerifier() { this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism()); }
+
+    // a pool of its own, stopped with shutdown()
+    public SignatureVerifier(int threads) { this(new ForkJoinPool(threads), threads); }
+
+    // executor : pool the checks run on, owned by the caller
+    public SignatureVerifier(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // input i of tx, against the publicKeyHash of the output it spends
+    public static class Check {
+        private final Transaction tx;
+        private final int input;
+        private final byte[] prevPubKeyHash;
+
+        public Check(Transaction tx, int input, byte[] prevPubKeyHash) {
+            this.tx = tx;
+            this.input = input;
+            this.prevPubKeyHash = prevPubKeyHash;
+        }
+
+        boolean run(SigCache cache) { return tx.verifyInput(input, prevPubKeyHash, cache); }
+    }
+
+    public boolean verify(List<Check> checks) {
+        long start = System.nanoTime();
+        boolean valid = checks.size() < MIN_PARALLEL || parallelism == 1 ? verifySerial(checks) : verifyParallel(checks);
+
+        long elapsed = System.nanoTime() - start;
+        batches.incrementAndGet();
+        signatures.addAndGet(checks.size());
+        nanos.addAndGet(elapsed);
+        lastNanos.set(elapsed);
+        if (!valid) failures.incrementAndGet();
+        return valid;
+    }
+
+    private boolean verifySerial(List<Check> checks) {
+        for (Check check : checks)
+            if (!check.run(sigCache)) return false;
+        return true;
+    }
+
+    private boolean verifyParallel(List<Check> checks) {
+        AtomicBoolean failed = new AtomicBoolean(false);
+        int chunks = Math.min(checks.size(), parallelism * CHUNKS_PER_THREAD);
+        int chunkSize = (checks.size() + chunks - 1) / chunks;
+
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int from = 0; from < checks.size(); from += chunkSize) {
+                List<Check> chunk = checks.subList(from, Math.min(from + chunkSize, checks.size()));
+                futures.add(executor.submit(() -> {
+                    for (Check check : chunk) {
+                        if (failed.get()) return;
+                        if (!check.run(sigCache)) {
+                            failed.set(true);
+                            return;
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+                if (failed.get()) break;
+            }
+        } catch (RejectedExecutionException e) {
+            // pool is shut down, finish on this thread
+            for (Future<?> future : futures) future.cancel(false);
+            return verifySerial(checks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            failed.set(true);
+        }
+
+        if (failed.get())
+            for (Future<?> future : futures) future.cancel(false);
+        return !failed.get();
+    }
+
+    public void shutdown() { executor.shutdown(); }
+
+    // null : check every signature
+    public void setSigCache(SigCache sigCache) { this.sigCache = sigCache; }
+    public SigCache getSigCache() { return sigCache; }
+
+    public int getParallelism() { return parallelism; }
+    public long getBatches() { return batches.get(); }
+    public long getSignatures() { return signatures.get(); }
+    public long getFailures() { return failures.get(); }
+    public long getNanos() { return nanos.get(); }
+    public long getLastNanos() { return lastNanos.get(); }
+
+    @Override
+    public String toString() {
+        long n = signatures.get();
+        return String.format("SignatureVerifier{threads=%d, batches=%d, signatures=%d, failures=%d, total=%dms, last=%dus, avg=%dus/sig}",
+                parallelism, batches.get(), n, failures.get(), nanos.get() / 1_000_000, lastNanos.get() / 1_000,
+                n == 0 ? 0 : nanos.get() / 1_000 / n);
+    }
+}
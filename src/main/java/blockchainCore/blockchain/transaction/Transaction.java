@@ -1,13 +1,17 @@
 package blockchainCore.blockchain.transaction;
 
+import blockchainCore.utils.Codec;
 import blockchainCore.utils.Utils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class Transaction implements Serializable {
+    public static final int VERSION = 1;
 
     private byte[] id;
     private ArrayList<TxInput> Vin = new ArrayList();
@@ -16,6 +20,10 @@ public class Transaction implements Serializable {
     //temp value
     final int subsidy = 50;
 
+    // digest of the transaction without unlocking data and the per input signature hashes built on it
+    private transient byte[] sigHashBase;
+    private transient byte[][] sigHashes, sigHashKeys;
+
     //coinbasetx
     public Transaction(String to, String data) {
         if(data.equals("")) {
@@ -36,6 +44,8 @@ public class Transaction implements Serializable {
         setId(Hash());
     }
 
+    private Transaction() {}
+
     public Transaction(Transaction tx) {
         this.id = tx.id;
         this.Vin = tx.Vin;
@@ -43,18 +53,86 @@ public class Transaction implements Serializable {
     }
 
     public byte[] Hash() {
-        return Utils.sha256(Utils.bytesConcat(Utils.toBytes(Vin), Utils.toBytes(Vout)));
+        MessageDigest md = Utils.sha256Digest();
+        digest(md);
+        return md.digest();
+    }
+
+    // canonical form of the transaction, streamed into md
+    //   vin count | { txId | vOut | pubKey | signature }... | vout count | { value | publicKeyHash }...
+    // ints are 4 bytes big endian, byte strings are prefixed by their length (-1 for null)
+    public void digest(MessageDigest md) {
+        digest(md, true);
+    }
+
+    private void digest(MessageDigest md, boolean unlocking) {
+        update(md, Vin.size());
+        for (TxInput vin : Vin) {
+            update(md, vin.getTxId());
+            update(md, vin.getvOut());
+            update(md, unlocking ? vin.getEncodedPubKey() : null);
+            update(md, unlocking ? vin.getSignature() : null);
+        }
+
+        update(md, Vout.size());
+        for (TxOutput vout : Vout) {
+            update(md, vout.getValue());
+            update(md, vout.getPublicKeyHash());
+        }
+    }
+
+    private static void update(MessageDigest md, int v) {
+        md.update((byte) (v >>> 24));
+        md.update((byte) (v >>> 16));
+        md.update((byte) (v >>> 8));
+        md.update((byte) v);
+    }
+
+    private static void update(MessageDigest md, byte[] b) {
+        if (b == null) {
+            update(md, -1);
+            return;
+        }
+        update(md, b.length);
+        md.update(b);
+    }
+
+    // what input i signs : sha256(digest without pubkeys and signatures | publicKeyHash of the spent output)
+    public synchronized byte[] sigHash(int i, byte[] prevPubKeyHash) {
+        if (sigHashes == null || sigHashes.length != Vin.size()) {
+            sigHashes = new byte[Vin.size()][];
+            sigHashKeys = new byte[Vin.size()][];
+        }
+        if (sigHashes[i] != null && Arrays.equals(sigHashKeys[i], prevPubKeyHash)) return sigHashes[i];
+
+        if (sigHashBase == null) {
+            MessageDigest md = Utils.sha256Digest();
+            digest(md, false);
+            sigHashBase = md.digest();
+        }
+
+        MessageDigest md = Utils.sha256Digest();
+        md.update(sigHashBase);
+        md.update(prevPubKeyHash);
+
+        sigHashKeys[i] = prevPubKeyHash;
+        return sigHashes[i] = md.digest();
     }
 
 
     public void sign(PrivateKey privateKey, HashMap<String, Transaction> prevTxs) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+        sign(privateKey, prevOutputs(prevTxs));
+    }
+
+    // prevOuts : where the outputs spent by the inputs are looked up, e.g. the UTXO set
+    public void sign(PrivateKey privateKey, UtxoView prevOuts) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         if(isCoinBase()) return;
 
-        Transaction txCopy = trimmedCopy();
-        for(int i=0; i<txCopy.getVin().size(); i++) {
-            TxInput vin = txCopy.getVin().get(i);
-            Transaction prevTx = prevTxs.get(Utils.toHexString(vin.getTxId()));
-            byte[] digest = Utils.sha256(Utils.bytesConcat(Utils.toBytes(txCopy.Hash()), prevTx.getVout().get(vin.getvOut()).getPublicKeyHash()));
+        for(int i=0; i<Vin.size(); i++) {
+            TxInput vin = Vin.get(i);
+            TxOutput prevOut = prevOuts.getOutput(vin.getTxId(), vin.getvOut());
+            if(prevOut == null) throw new SignatureException("previous output not found");
+            byte[] digest = sigHash(i, prevOut.getPublicKeyHash());
 
             Signature sig = Signature.getInstance("SHA256withECDSA");
             sig.initSign(privateKey);
@@ -64,54 +142,61 @@ public class Transaction implements Serializable {
         }
     }
 
-    public boolean Verify(HashMap<String,Transaction> prevTxs) {
-        if(isCoinBase()) return true;
+    public boolean Verify(HashMap<String,Transaction> prevTxs) { return Verify(prevOutputs(prevTxs)); }
 
-        for(TxInput vin : Vin) {
-            if(prevTxs.get(Utils.toHexString(vin.getTxId())) == null)
-                new Exception("ERROR: Previous transaction is not correct").printStackTrace();
-        }
-
-        Transaction txCopy = trimmedCopy();
+    public boolean Verify(UtxoView prevOuts) {
+        if(isCoinBase()) return true;
 
         for(int i=0; i< Vin.size(); i++) {
             TxInput vin = Vin.get(i);
-            Transaction prevTx = prevTxs.get(Utils.toHexString(vin.getTxId()));
-            byte[] digest = Utils.sha256(Utils.bytesConcat(Utils.toBytes(txCopy.Hash()), prevTx.getVout().get(vin.getvOut()).getPublicKeyHash()));
-
-            boolean v = false;
-            try {
-                Signature sig = Signature.getInstance("SHA256withECDSA");
-                sig.initVerify(Vin.get(i).getPubKey());
-                sig.update(digest);
-                v = sig.verify(Vin.get(i).getSignature());
-            } catch (Exception e) {
-                e.printStackTrace();
+            TxOutput prevOut = prevOuts.getOutput(vin.getTxId(), vin.getvOut());
+            if(prevOut == null) {
+                new Exception("ERROR: Previous output is not correct").printStackTrace();
+                return false;
             }
-
-            if(!v) return false;
+            if(!verifyInput(i, prevOut.getPublicKeyHash())) return false;
         }
         return true;
     }
-    public boolean validCoinbase() {
-        if (!isCoinBase()) return false;
 
-        return Vout.get(0).getValue() == subsidy;
+    // outputs of whole previous transactions, txid in hex -> transaction
+    private static UtxoView prevOutputs(HashMap<String, Transaction> prevTxs) {
+        return (txId, vout) -> {
+            Transaction prevTx = prevTxs.get(Utils.toHexString(txId));
+            if(prevTx == null || vout < 0 || vout >= prevTx.getVout().size()) return null;
+            return prevTx.getVout().get(vout);
+        };
     }
 
-    private Transaction trimmedCopy() {
-        ArrayList<TxInput> inputs = new ArrayList<TxInput>();
-        ArrayList<TxOutput> outputs = new ArrayList<TxOutput>();
+    // signature of input i, prevPubKeyHash : publicKeyHash of the output it spends.
+    // inputs can be checked from different threads (see SignatureVerifier)
+    public boolean verifyInput(int i, byte[] prevPubKeyHash) { return verifyInput(i, prevPubKeyHash, SigCache.getShared()); }
+    public boolean verifyInput(int i, byte[] prevPubKeyHash, SigCache cache) {
+        TxInput vin = Vin.get(i);
+        if (vin.getSignature() == null) return false;
 
-        for(TxInput vin : Vin) {
-            inputs.add(new TxInput(vin.getTxId(), vin.getvOut(), null, null));
-        }
+        byte[] digest = sigHash(i, prevPubKeyHash);
+        byte[] key = cache == null ? null : SigCache.key(digest, vin.getEncodedPubKey(), vin.getSignature());
+        if (key != null && cache.contains(key)) return true;
 
-        for(TxOutput vout : Vout) {
-            outputs.add(new TxOutput(vout));
+        boolean v;
+        try {
+            Signature sig = Signature.getInstance("SHA256withECDSA");
+            sig.initVerify(vin.getPubKey());
+            sig.update(digest);
+            v = sig.verify(vin.getSignature());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
         }
 
-        return new Transaction(id, inputs, outputs);
+        if (v && key != null) cache.add(key);
+        return v;
+    }
+    public boolean validCoinbase() {
+        if (!isCoinBase()) return false;
+
+        return Vout.get(0).getValue() == subsidy;
     }
 
     public boolean isCoinBase() {
@@ -134,4 +219,42 @@ public class Transaction implements Serializable {
     public ArrayList<TxOutput> getVout() {
         return Vout;
     }
+
+    // version | id | vin count | vin... | vout count | vout...
+    public void encode(ByteBuffer buf) {
+        buf.put((byte) VERSION);
+        Codec.putHash(buf, id);
+        Codec.putVarInt(buf, Vin.size());
+        for (TxInput vin : Vin) vin.encode(buf);
+        Codec.putVarInt(buf, Vout.size());
+        for (TxOutput vout : Vout) vout.encode(buf);
+    }
+    public int encodedSize() {
+        int size = 1 + Codec.HASH_SIZE + Codec.varIntSize(Vin.size()) + Codec.varIntSize(Vout.size());
+        for (TxInput vin : Vin) size += vin.encodedSize();
+        for (TxOutput vout : Vout) size += vout.encodedSize();
+        return size;
+    }
+    public byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(encodedSize());
+        encode(buf);
+        return buf.array();
+    }
+
+    public static Transaction decode(ByteBuffer buf) {
+        Codec.checkVersion(buf, VERSION, "transaction");
+
+        Transaction tx = new Transaction();
+        tx.id = Codec.getHash(buf);
+
+        int vinCount = Codec.getVarInt(buf);
+        tx.Vin = new ArrayList<>(vinCount);
+        for (int i = 0; i < vinCount; i++) tx.Vin.add(TxInput.decode(buf));
+
+        int voutCount = Codec.getVarInt(buf);
+        tx.Vout = new ArrayList<>(voutCount);
+        for (int i = 0; i < voutCount; i++) tx.Vout.add(TxOutput.decode(buf));
+        return tx;
+    }
+    public static Transaction fromBytes(byte[] b) { return decode(ByteBuffer.wrap(b)); }
 }
\ No newline at end of file
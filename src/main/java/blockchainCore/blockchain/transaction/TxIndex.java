@@ -0,0 +1,85 @@
+package blockchainCore.blockchain.transaction;
+
+import blockchainCore.DB.Bucket;
+import blockchainCore.DB.Db;
+import blockchainCore.DB.WriteBatch;
+import blockchainCore.blockchain.Block;
+import blockchainCore.blockchain.BlockView;
+import blockchainCore.blockchain.Blockchain;
+import blockchainCore.utils.Codec;
+import blockchainCore.utils.Pair;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// txid -> location of the transaction in the main chain.
+// entries are written in the same batch as the block that connects or disconnects them,
+// so the index lives in the db next to the chainstate and is persistent whenever the db is.
+//
+// value : blockHash(32) | txIndex(4)
+public class TxIndex {
+    private final String indexBucket = "txindex";
+    private Blockchain bc;
+    private Db db;
+
+    public TxIndex(Blockchain bc) {
+        this.bc = bc;
+        this.db = bc.getDb();
+    }
+
+    public void connect(Block block, WriteBatch b) {
+        Transaction[] txs = block.getTransactions();
+        for (int i = 0; i < txs.length; i++)
+            b.put(indexBucket, txs[i].getId(), location(block.getHash(), i));
+    }
+
+    public void disconnect(Block block, WriteBatch b) {
+        for (Transaction tx : block.getTransactions()) {
+            byte[] loc = b.get(indexBucket, tx.getId());
+            if (loc != null && Arrays.equals(blockHash(loc), block.getHash()))
+                b.delete(indexBucket, tx.getId());
+        }
+    }
+
+    // index of the chain ending with a new tip 'block' that is not stored yet
+    public void reIndex(WriteBatch b, Block block) {
+        if (block.getHeight() > 0) reIndex(b, block.getPrevBlockHash());
+        else b.clear(indexBucket);
+        connect(block, b);
+    }
+
+    // index of the stored chain ending with 'tip'
+    public void reIndex(WriteBatch b, byte[] tip) {
+        b.clear(indexBucket);
+
+        Iterator<BlockView> itr = bc.viewIterator(tip);
+        while (itr.hasNext()) {
+            BlockView view = itr.next();
+            int i = 0;
+            for (Transaction tx : view.getTransactions())
+                b.put(indexBucket, tx.getId(), location(view.getHash(), i++));
+        }
+    }
+
+    public void reIndex() {
+        WriteBatch batch = db.newBatch();
+        reIndex(batch, bc.getTip());
+        db.write(batch);
+    }
+
+    // (blockHash, txIndex) of a main chain transaction, null if it is not there
+    public Pair<byte[], Integer> find(byte[] txId) {
+        byte[] loc = db.getBucket(indexBucket).get(txId);
+        if (loc == null) return null;
+        return new Pair<>(blockHash(loc), ByteBuffer.wrap(loc).getInt(Codec.HASH_SIZE));
+    }
+
+    public boolean isEmpty() { return db.getBucket(indexBucket).count() == 0; }
+
+    private static byte[] location(byte[] blockHash, int txIndex) {
+        return ByteBuffer.allocate(Codec.HASH_SIZE + 4).put(blockHash).putInt(txIndex).array();
+    }
+
+    private static byte[] blockHash(byte[] loc) { return Arrays.copyOf(loc, Codec.HASH_SIZE); }
+}
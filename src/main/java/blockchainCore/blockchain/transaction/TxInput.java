@@ -1,8 +1,10 @@
 package blockchainCore.blockchain.transaction;
 
+import blockchainCore.utils.Codec;
 import blockchainCore.utils.Utils;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.security.PublicKey;
 import java.util.Arrays;
 
@@ -13,6 +15,9 @@ public class TxInput implements Serializable {
     private PublicKey pubKey;
     private byte[] signature;
 
+    // X.509 form of pubKey. a decoded input keeps only this until the key itself is asked for
+    private transient byte[] encodedPubKey;
+
 
     public TxInput(byte[] txId, int vOut, PublicKey pubKey, byte[] signature) {
         this.txId = txId;
@@ -21,13 +26,21 @@ public class TxInput implements Serializable {
         this.signature = signature;
     }
 
+    private TxInput(byte[] txId, int vOut, byte[] encodedPubKey, byte[] signature) {
+        this.txId = txId;
+        this.vOut = vOut;
+        this.encodedPubKey = encodedPubKey;
+        this.signature = signature;
+    }
+
     public boolean usesKey(byte[] pubKeyHash) {
-        byte[] lockingHash = Utils.ripemd160(Utils.sha256(pubKey.getEncoded()));
+        byte[] lockingHash = Utils.ripemd160(Utils.sha256(getEncodedPubKey()));
         return Arrays.equals(lockingHash, pubKeyHash);
     }
 
     public void setPubKey(PublicKey pubKey) {
         this.pubKey = pubKey;
+        this.encodedPubKey = null;
     }
 
     public void setSignature(byte[] signature) {
@@ -55,6 +68,31 @@ public class TxInput implements Serializable {
         return signature;
     }
     public PublicKey getPubKey() {
+        if (pubKey == null && encodedPubKey != null)
+            pubKey = Codec.decodePublicKey(encodedPubKey);
         return pubKey;
     }
-}
\ No newline at end of file
+    public byte[] getEncodedPubKey() {
+        if (encodedPubKey == null && pubKey != null)
+            encodedPubKey = Codec.encodePublicKey(pubKey);
+        return encodedPubKey;
+    }
+
+    // txId | vOut | pubKey | signature
+    public void encode(ByteBuffer buf) {
+        Codec.putHash(buf, txId);
+        Codec.putSignedVarInt(buf, vOut);
+        Codec.putNullableBytes(buf, getEncodedPubKey());
+        Codec.putNullableBytes(buf, signature);
+    }
+    public int encodedSize() {
+        return Codec.HASH_SIZE + Codec.signedVarIntSize(vOut)
+                + Codec.nullableBytesSize(getEncodedPubKey()) + Codec.nullableBytesSize(signature);
+    }
+    public static TxInput decode(ByteBuffer buf) {
+        byte[] txId = Codec.getHash(buf);
+        int vOut = Codec.getSignedVarInt(buf);
+        byte[] pubKey = Codec.getNullableBytes(buf);
+        return new TxInput(txId, vOut, pubKey, Codec.getNullableBytes(buf));
+    }
+}
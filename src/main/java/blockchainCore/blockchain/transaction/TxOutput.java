@@ -1,8 +1,10 @@
 package blockchainCore.blockchain.transaction;
 
+import blockchainCore.utils.Codec;
 import org.bitcoinj.core.Base58;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class TxOutput implements Serializable {
@@ -14,6 +16,11 @@ public class TxOutput implements Serializable {
         Lock(address);
     }
 
+    public TxOutput(int value, byte[] publicKeyHash) {
+        this.value = value;
+        this.publicKeyHash = publicKeyHash;
+    }
+
     public TxOutput(TxOutput txOutput) {
         this.value = txOutput.value;
         this.publicKeyHash = txOutput.publicKeyHash;
@@ -36,4 +43,17 @@ public class TxOutput implements Serializable {
         return publicKeyHash;
     }
 
+    // value | publicKeyHash
+    public void encode(ByteBuffer buf) {
+        Codec.putVarInt(buf, value & 0xffffffffL);
+        Codec.putBytes(buf, publicKeyHash);
+    }
+    public int encodedSize() {
+        return Codec.varIntSize(value & 0xffffffffL) + Codec.bytesSize(publicKeyHash);
+    }
+    public static TxOutput decode(ByteBuffer buf) {
+        int value = (int) Codec.getVarLong(buf);
+        return new TxOutput(value, Codec.getBytes(buf));
+    }
+
 }
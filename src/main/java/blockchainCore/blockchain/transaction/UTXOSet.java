@@ -1,132 +1,254 @@
 package blockchainCore.blockchain.transaction;
 
-import blockchainCore.DB.Bucket;
 import blockchainCore.DB.Cursor;
 import blockchainCore.DB.Db;
+import blockchainCore.DB.WriteBatch;
 import blockchainCore.blockchain.Block;
 import blockchainCore.blockchain.Blockchain;
+import blockchainCore.utils.Codec;
 import blockchainCore.utils.Pair;
 import blockchainCore.utils.Utils;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
-public class UTXOSet {
+// chainstate : txid | vout -> value(4) | publicKeyHash(20), one entry per unspent output,
+//              read and written through the chain's CoinsCache
+// addrindex  : len(pubKeyHash) | pubKeyHash | txid | vout -> value, the outpoints each key can spend
+// balance    : pubKeyHash -> sum of those values
+// the two indexes follow every change of the chainstate, in the same batch.
+// undo       : blockHash -> outputs the block spent, to disconnect it again without walking the chain
+public class UTXOSet implements UtxoView {
     private final String utxoBucket = "chainstate";
+    private final String addrBucket = "addrindex";
+    private final String balanceBucket = "balance";
+    private final String undoBucket = "undo";
     private Blockchain bc;
     private Db db;
+    private CoinsCache coins;
 
     public UTXOSet(Blockchain bc) {
         this.bc = bc;
         this.db = bc.getDb();
+        this.coins = bc.getCoins();
+    }
+    public void reIndex() { reIndex(bc.findUTXO()); }
+    public void reIndex(HashMap<String, TxOutputs> utxoset) {
+        WriteBatch batch = db.newBatch();
+        reIndex(batch, utxoset);
+        db.write(batch);
     }
-    public void reIndex() {
-        db.getBucket(utxoBucket).clear();
-        HashMap<String, TxOutputs> UTXO = bc.findUTXO();
-
-        Iterator<String> itr = UTXO.keySet().iterator();
-        while(itr.hasNext()){
-            String txId = itr.next();
-            TxOutputs outs = UTXO.get(txId);
 
-            db.getBucket(utxoBucket).put(txId, Utils.toBytes(outs));
-        }
+    // chainstate of a new tip 'block' that is not stored yet
+    public void reIndex(WriteBatch batch, Block block) {
+        reIndex(batch, bc.findUTXO(block.getPrevBlockHash()));
+        update(block, batch);
     }
 
-    public void reIndex(HashMap<String, TxOutputs> utxoset) {
-        db.getBucket(utxoBucket).clear();
+    public void reIndex(WriteBatch batch, HashMap<String, TxOutputs> utxoset) {
+        ArrayList<Pair<byte[], byte[]>> entries = new ArrayList<>();
         Iterator<String> itr = utxoset.keySet().iterator();
         while(itr.hasNext()){
             String txId = itr.next();
             TxOutputs outs = utxoset.get(txId);
+            byte[] id = Utils.hexToBytes(txId);
 
-            db.getBucket(utxoBucket).put(txId, Utils.toBytes(outs));
+            for (Map.Entry<Integer, TxOutput> out : outs.getOutputs().entrySet())
+                entries.add(new Pair<>(outpoint(id, out.getKey()), encodeOutput(out.getValue())));
         }
+        load(batch, entries);
     }
 
-    public ArrayList<TxOutput> findUTXO(byte[] pubkeyHash) {
-        ArrayList<TxOutput> UTXOs = new ArrayList();
-
-        Bucket b = db.getBucket(utxoBucket);
-        Cursor c = b.Cursor();
+    // replace the chainstate and its indexes with 'entries' : outpoint -> stored output
+    public void load(WriteBatch batch, Iterable<Pair<byte[], byte[]>> entries) {
+        coins.clear();
+        batch.clear(utxoBucket);
+        batch.clear(addrBucket);
+        batch.clear(balanceBucket);
 
-        while(c.hasNext()){
-            Pair<String, byte[]> kv = c.next();
-            TxOutputs outs = Utils.toObject(kv.getValue());
+        HashMap<ByteBuffer, Long> balances = new HashMap<>();
+        for (Pair<byte[], byte[]> entry : entries) {
+            byte[] key = entry.getKey();
+            byte[] txId = Arrays.copyOf(key, key.length - 4);
+            int vout = ByteBuffer.wrap(key).getInt(key.length - 4);
+            TxOutput o = decodeOutput(entry.getValue());
 
-            for(TxOutput out : outs.getOutputs().values()) {
-                if(out.isLockedWithKey(pubkeyHash)) {
-                    UTXOs.add(out);
-                }
-            }
+            batch.put(utxoBucket, key, entry.getValue());
+            batch.put(addrBucket, addressKey(o.getPublicKeyHash(), txId, vout), value(o.getValue()));
+            balances.merge(ByteBuffer.wrap(o.getPublicKeyHash()), (long) o.getValue(), Long::sum);
         }
 
+        for (Map.Entry<ByteBuffer, Long> balance : balances.entrySet())
+            batch.put(balanceBucket, balance.getKey().array(), ByteBuffer.allocate(8).putLong(balance.getValue()).array());
+    }
+
+    public ArrayList<TxOutput> findUTXO(byte[] pubkeyHash) {
+        ArrayList<TxOutput> UTXOs = new ArrayList();
+
+        Cursor c = db.getBucket(addrBucket).Cursor().prefix(addressPrefix(pubkeyHash));
+        while(c.hasNext())
+            UTXOs.add(new TxOutput(ByteBuffer.wrap(c.next().getValue()).getInt(), pubkeyHash));
+
         return UTXOs;
     }
 
+    public long getBalance(byte[] pubkeyHash) {
+        byte[] balance = db.getBucket(balanceBucket).get(pubkeyHash);
+        return balance == null ? 0 : ByteBuffer.wrap(balance).getLong();
+    }
+
     public void update(Block block) {
-        Bucket b = db.getBucket(utxoBucket);
+        WriteBatch batch = db.newBatch();
+        update(block, batch);
+        db.write(batch);
+    }
+
+    public void update(Block block, WriteBatch b) {
+        BlockUndo undo = new BlockUndo();
 
         for(Transaction tx : block.getTransactions()) {
             if(!tx.isCoinBase()) {
                 for(TxInput vin : tx.getVin()) {
-                    String txId = Utils.toHexString(vin.getTxId());
-                    TxOutputs outs = Utils.toObject(b.get(txId));
-
-                    outs.getOutputs().remove(vin.getvOut());
+                    byte[] txId = vin.getTxId();
+                    TxOutput spent = coins.getOutput(b, txId, vin.getvOut());
 
-                    if(outs.getOutputs().isEmpty()) b.delete(txId);
-                    else b.put(txId, Utils.toBytes(outs));
+                    coins.spend(txId, vin.getvOut());
+                    b.delete(addrBucket, addressKey(spent.getPublicKeyHash(), txId, vin.getvOut()));
+                    addBalance(b, spent.getPublicKeyHash(), -spent.getValue());
+                    undo.add(txId, vin.getvOut(), spent);
                 }
             }
 
-            TxOutputs newOutputs = new TxOutputs();
             ArrayList<TxOutput> vouts = tx.getVout();
-            for (int i = 0; i < vouts.size(); i++)
-                newOutputs.getOutputs().put(i, vouts.get(i));
+            for (int i = 0; i < vouts.size(); i++) {
+                TxOutput out = vouts.get(i);
+                coins.add(tx.getId(), i, out, true);
+                b.put(addrBucket, addressKey(out.getPublicKeyHash(), tx.getId(), i), value(out.getValue()));
+                addBalance(b, out.getPublicKeyHash(), out.getValue());
+            }
+        }
+
+        b.put(undoBucket, block.getHash(), undo.toBytes());
+    }
+
+    // revert update(block), the tip of the chainstate. false if the block has no undo record
+    public boolean disconnect(Block block, WriteBatch b) {
+        byte[] undo = b.get(undoBucket, block.getHash());
+        if (undo == null) return false;
+
+        BlockUndo spent = BlockUndo.fromBytes(undo);
+        Transaction[] txs = block.getTransactions();
+        int next = spent.size();
+        for (int t = txs.length - 1; t >= 0; t--) {
+            Transaction tx = txs[t];
+
+            // outputs of tx, unspent again since the later transactions are already reverted
+            for (int i = 0; i < tx.getVout().size(); i++) {
+                TxOutput o = coins.getOutput(b, tx.getId(), i);
+                if (o == null) continue;
 
-            b.put(Utils.toHexString(tx.getId()), Utils.toBytes(newOutputs));
+                coins.spend(tx.getId(), i);
+                b.delete(addrBucket, addressKey(o.getPublicKeyHash(), tx.getId(), i));
+                addBalance(b, o.getPublicKeyHash(), -o.getValue());
+            }
+
+            if (tx.isCoinBase()) continue;
+            for (int i = tx.getVin().size() - 1; i >= 0; i--) {
+                next--;
+                byte[] txId = spent.getTxId(next);
+                TxOutput out = spent.getOutput(next);
+
+                coins.add(txId, spent.getvOut(next), out, false);
+                b.put(addrBucket, addressKey(out.getPublicKeyHash(), txId, spent.getvOut(next)), value(out.getValue()));
+                addBalance(b, out.getPublicKeyHash(), out.getValue());
+            }
         }
 
+        return true;
     }
-    public boolean validVin(TxInput txInput) {
-        Bucket b = db.getBucket(utxoBucket);
-        byte[] temp = b.get(Utils.toHexString(txInput.getTxId()));
-        if (temp == null) return false;
 
-        TxOutputs txOutputs = Utils.toObject(temp);
-        return txOutputs.getOutputs().containsKey(txInput.getvOut());
+    public BlockUndo getUndo(byte[] blockHash) {
+        byte[] undo = db.getBucket(undoBucket).get(blockHash);
+        return undo == null ? null : BlockUndo.fromBytes(undo);
+    }
+
+    public void putUndo(WriteBatch b, byte[] blockHash, BlockUndo undo) { b.put(undoBucket, blockHash, undo.toBytes()); }
+
+    public boolean hasUndo(byte[] blockHash) { return db.getBucket(undoBucket).contains(blockHash); }
+
+    // chainstate stored by an older version : keyed by txid alone or without the address index
+    public boolean needsReIndex() {
+        Pair<byte[], byte[]> first = db.getBucket(utxoBucket).Cursor().first();
+        if (first == null) return false;
+        return first.getKey().length != Codec.HASH_SIZE + 4 || db.getBucket(addrBucket).count() == 0;
+    }
+
+    @Override
+    public TxOutput getOutput(byte[] txId, int vout) { return coins.getOutput(txId, vout); }
+
+    public boolean validVin(TxInput txInput) {
+        return coins.contains(txInput);
     }
 
     public Pair<Integer, HashMap<String, ArrayList<Integer>>> findSpendableOutputs(byte[] pubkeyHash, int amount) {
         HashMap<String, ArrayList<Integer>> unspentOutputs = new HashMap<>();
         int accumulated = 0;
 
-        Bucket b = db.getBucket(utxoBucket);
-        Cursor c = b.Cursor();
-
-        while(c.hasNext()) {
-            Pair<String, byte[]> kv = c.next();
-            String txId = kv.getKey();
-            if (kv.getValue() == null)
-                System.out.println("DEBUGGGGGG");
-            TxOutputs outs = Utils.toObject(kv.getValue());
+        Cursor c = db.getBucket(addrBucket).Cursor().prefix(addressPrefix(pubkeyHash));
+        while(c.hasNext() && accumulated < amount) {
+            Pair<byte[], byte[]> kv = c.next();
+            ByteBuffer key = ByteBuffer.wrap(kv.getKey());
+            key.position(1 + pubkeyHash.length);
 
-            for (Integer key : outs.getOutputs().keySet()) {
-                TxOutput out = outs.getOutputs().get(key);
+            byte[] id = new byte[key.remaining() - 4];
+            key.get(id);
+            String txId = Utils.toHexString(id);
 
-                if(out.isLockedWithKey(pubkeyHash) && accumulated < amount) {
-                    accumulated+= out.getValue();
-                    if(!unspentOutputs.containsKey(txId)) unspentOutputs.put(txId, new ArrayList<>());
-                    unspentOutputs.get(txId).add(key);
-                }
-            }
+            accumulated += ByteBuffer.wrap(kv.getValue()).getInt();
+            if(!unspentOutputs.containsKey(txId)) unspentOutputs.put(txId, new ArrayList<>());
+            unspentOutputs.get(txId).add(key.getInt());
         }
 
         return new Pair<>(accumulated, unspentOutputs);
     }
 
+    private void addBalance(WriteBatch b, byte[] pubkeyHash, long delta) {
+        byte[] old = b.get(balanceBucket, pubkeyHash);
+        long balance = (old == null ? 0 : ByteBuffer.wrap(old).getLong()) + delta;
+
+        if (balance == 0) b.delete(balanceBucket, pubkeyHash);
+        else b.put(balanceBucket, pubkeyHash, ByteBuffer.allocate(8).putLong(balance).array());
+    }
+
+    // chainstate key of an output
+    public static byte[] outpoint(byte[] txId, int vout) {
+        return ByteBuffer.allocate(txId.length + 4).put(txId).putInt(vout).array();
+    }
+
+    public static byte[] encodeOutput(TxOutput out) {
+        byte[] pkh = out.getPublicKeyHash();
+        return ByteBuffer.allocate(4 + pkh.length).putInt(out.getValue()).put(pkh).array();
+    }
+
+    public static TxOutput decodeOutput(byte[] b) {
+        return new TxOutput(ByteBuffer.wrap(b).getInt(), Arrays.copyOfRange(b, 4, b.length));
+    }
+
+    private static byte[] addressPrefix(byte[] pubkeyHash) {
+        return ByteBuffer.allocate(1 + pubkeyHash.length).put((byte) pubkeyHash.length).put(pubkeyHash).array();
+    }
+
+    private static byte[] addressKey(byte[] pubkeyHash, byte[] txId, int vout) {
+        return ByteBuffer.allocate(1 + pubkeyHash.length + txId.length + 4)
+                .put((byte) pubkeyHash.length).put(pubkeyHash).put(txId).putInt(vout).array();
+    }
+
+    private static byte[] value(int value) { return ByteBuffer.allocate(4).putInt(value).array(); }
+
     public Blockchain getBc() {
         return bc;
     }
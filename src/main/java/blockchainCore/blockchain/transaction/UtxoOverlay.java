@@ -0,0 +1,32 @@
+package blockchainCore.blockchain.transaction;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+// copy-on-write layer over another view.
+// only the outpoints touched by the blocks applied to it are held here, everything else is read through,
+// so the state of a side branch costs the blocks between the fork point and its tip, not a whole UTXO set.
+public class UtxoOverlay implements MutableUtxoView {
+    private final UtxoView base;
+    private final HashMap<ByteBuffer, TxOutput> changes = new HashMap<>(); // null : spent
+
+    public UtxoOverlay(UtxoView base) {
+        this.base = base;
+    }
+
+    @Override
+    public TxOutput getOutput(byte[] txId, int vout) {
+        ByteBuffer key = outpoint(txId, vout);
+        if (changes.containsKey(key)) return changes.get(key);
+        return base.getOutput(txId, vout);
+    }
+
+    @Override
+    public void spend(byte[] txId, int vout) { changes.put(outpoint(txId, vout), null); }
+    @Override
+    public void add(byte[] txId, int vout, TxOutput out) { changes.put(outpoint(txId, vout), out); }
+
+    public int size() { return changes.size(); }
+
+    private static ByteBuffer outpoint(byte[] txId, int vout) { return ByteBuffer.wrap(UTXOSet.outpoint(txId, vout)); }
+}
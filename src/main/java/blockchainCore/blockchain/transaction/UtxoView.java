@@ -0,0 +1,21 @@
+package blockchainCore.blockchain.transaction;
+
+import blockchainCore.utils.Utils;
+
+import java.util.HashMap;
+
+// the unspent outputs of some chain tip
+public interface UtxoView {
+    // output 'vout' of transaction 'txId', null if it does not exist or is spent
+    TxOutput getOutput(byte[] txId, int vout);
+
+    default boolean contains(TxInput vin) { return getOutput(vin.getTxId(), vin.getvOut()) != null; }
+
+    // view over a materialized set, txid in hex -> outputs
+    static UtxoView of(HashMap<String, TxOutputs> utxoset) {
+        return (txId, vout) -> {
+            TxOutputs outs = utxoset.get(Utils.toHexString(txId));
+            return outs == null ? null : outs.getOutputs().get(vout);
+        };
+    }
+}
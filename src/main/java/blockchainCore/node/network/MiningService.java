@@ -0,0 +1,105 @@
+package blockchainCore.node.network;
+
+import blockchainCore.blockchain.Block;
+import blockchainCore.blockchain.Blockchain;
+import blockchainCore.blockchain.transaction.Transaction;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// the mining thread of a node, started once and kept for its lifetime.
+// it waits until something changes (a new tip, a transaction entering the pool), then builds a block
+// template and mines it. a new tip aborts the search at once and the template is built again.
+// a new transaction only restarts a search whose template is older than TEMPLATE_REFRESH_INTERVAL,
+// so a steady flow of transactions can not keep the search from ever finishing.
+public class MiningService extends Thread {
+    // how often a template that was not ready (too few transactions) is asked for again
+    private static final long RECHECK_INTERVAL = 1000L;
+    // how old a template must be before a new transaction restarts the search with it
+    private static final long TEMPLATE_REFRESH_INTERVAL = 5000L;
+
+    private final Blockchain bc;
+    private final Supplier<Transaction[]> template;
+    private final Consumer<Block> onMined;
+    private final Runnable tipListener = this::notifyTip;
+
+    // guarded by this
+    private boolean changed = true, mining = false;
+    private long templateTime = 0;
+    private volatile boolean running = true;
+    // counted by the mining thread, read from any other
+    private final AtomicLong mined = new AtomicLong(), aborted = new AtomicLong();
+
+    // template : transactions of the next block, null if there is nothing to mine yet
+    // onMined : called with a block once it is mined and connected
+    public MiningService(Blockchain bc, Supplier<Transaction[]> template, Consumer<Block> onMined) {
+        this.bc = bc;
+        this.template = template;
+        this.onMined = onMined;
+        setDaemon(true);
+        setName("mining-service");
+    }
+
+    @Override
+    public void run() {
+        bc.addTipListener(tipListener);
+        try {
+            while (running) {
+                int generation;
+                synchronized (this) {
+                    // 변경이 없어도 시간이 지나면 다시 확인
+                    if (!changed)
+                        try { wait(RECHECK_INTERVAL); } catch (InterruptedException ignored) {}
+                    if (!running) break;
+                    changed = false;
+                    // 이후의 변경은 이번 채굴을 중단시킴
+                    generation = bc.getMiningGeneration();
+                    templateTime = System.currentTimeMillis();
+                    mining = true;
+                }
+
+                Transaction[] txs = template.get();
+                Block block = txs == null ? null : bc.mineBlock(txs, generation);
+
+                synchronized (this) {
+                    mining = false;
+                    // 중단된 채굴은 기다리지 않고 다시 시작
+                    if (generation != bc.getMiningGeneration()) changed = true;
+                }
+                if (block != null) {
+                    mined.incrementAndGet();
+                    onMined.accept(block);
+                } else if (txs != null && generation != bc.getMiningGeneration()) {
+                    aborted.incrementAndGet();
+                }
+            }
+        } finally {
+            bc.removeTipListener(tipListener);
+        }
+    }
+
+    // the tip changed : drop the running search and build a new template.
+    // the generation is bumped under the lock, so a template built after this wakes the loop is never aborted by it
+    public synchronized void notifyTip() {
+        bc.abortMining();
+        changed = true;
+        notifyAll();
+    }
+
+    // a transaction entered the pool : build a new template when idle, or when the running one is old enough
+    public synchronized void notifyPool() {
+        if (mining && System.currentTimeMillis() - templateTime >= TEMPLATE_REFRESH_INTERVAL)
+            bc.abortMining();
+        changed = true;
+        notifyAll();
+    }
+
+    public void close() {
+        running = false;
+        notifyTip();
+    }
+
+    public long getMined() { return mined.get(); }
+    public long getAborted() { return aborted.get(); }
+}
@@ -59,7 +59,7 @@ public class Network {
 
     public void sendBlock(String nodeId, Block block) {
         byte[] command = new byte[]{TYPE.BLOCK};
-        byte[] data = Utils.toBytes(block);
+        byte[] data = block.toBytes();
 
         byte[] buff = Utils.bytesConcat(command, data);
 
@@ -87,7 +87,7 @@ public class Network {
     }
     public void sendTx(String nodeId, Transaction tx) {
         byte[] command = new byte[]{TYPE.TX};
-        byte[] data = Utils.toBytes(tx);
+        byte[] data = tx.toBytes();
 
         byte[] buff = Utils.bytesConcat(command, data);
 
@@ -11,6 +11,8 @@ import blockchainCore.node.network.event.NetworkListener;
 import blockchainCore.utils.Utils;
 import org.bitcoinj.core.Base58;
 
+import java.io.File;
+import java.io.IOException;
 import java.time.LocalTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -21,7 +23,7 @@ public class Node extends Thread implements NetworkListener {
 
     private String nodeId;
     private boolean bLoop = true;
-    private boolean bMining = false, bMineThreadStart = false;
+    private volatile MiningService miner;
 
     // Wallett
     private Wallets wallets;
@@ -43,10 +45,11 @@ public class Node extends Thread implements NetworkListener {
     // Network
     private Network network;
 
-    public Node() {
+    public Node() { this(new Db()); }
+    public Node(Db db) {
         wallets = new Wallets();
         useWallet(createWallet());
-        this.db = new Db();
+        this.db = db;
         //nodeId = Utils.sha256(Float.valueOf(new SecureRandom().nextFloat()).toString().getBytes());
         nodeId = Integer.toString(NodeCount++);
         this.network = new Network(nodeId);
@@ -75,6 +78,9 @@ public class Node extends Thread implements NetworkListener {
     // Genesis Block
     public void createGenesisBlock() { this.bc = new Blockchain(wallet.getAddress(), this.db); }
     public void createNullBlockchain() { this.bc = new Blockchain(this.db); }
+    // start from a chainstate snapshot of another node, the older blocks are fetched and checked afterwards
+    public void loadSnapshot(File file) throws IOException { this.bc = Blockchain.fromSnapshot(this.db, ChainstateSnapshot.read(file)); }
+    public byte[] exportSnapshot(File file) throws IOException { return bc.exportSnapshot(file); }
 
     public String getNodeId() {
         return nodeId;
@@ -87,6 +93,7 @@ public class Node extends Thread implements NetworkListener {
         network.connectTo(to);
         network.sendAddress(to);
         network.sendVersion(to, bc.getTip());
+        if (bc.isSnapshotPending()) network.sendGetBlocks(to); // 스냅샷 아래의 블록 요청
     }
     public void disconnection(String _nodeId) {
         network.disconnectionTo(_nodeId);
@@ -105,6 +112,7 @@ public class Node extends Thread implements NetworkListener {
 
         System.out.printf("'%s'가 '%s'에게 %d 전송\n", from, to, amount);
         txPool.put(Utils.toHexString(tx.getId()), tx);
+        poolChanged();
         for (String _nodeId : network.getConnList())
             network.sendTx(_nodeId, tx);
         return true;
@@ -117,14 +125,7 @@ public class Node extends Thread implements NetworkListener {
         for (String address : wallets.getAddresses()) {
             byte[] pubkeyHash = Base58.decode(address);
             pubkeyHash = Arrays.copyOfRange(pubkeyHash, 1, pubkeyHash.length - 4);
-            ArrayList<TxOutput> UTOXs = utxoSet.findUTXO(pubkeyHash);
-
-            int balance = 0;
-            for (TxOutput out : UTOXs) {
-                balance += out.getValue();
-            }
-
-            balances.put(address, balance);
+            balances.put(address, (int) utxoSet.getBalance(pubkeyHash));
         }
 
         return balances;
@@ -132,26 +133,15 @@ public class Node extends Thread implements NetworkListener {
 
     @Override
     public void run() {
+        // 채굴은 새 블록이나 Tx 가 올 때 다시 시작
+        miner = new MiningService(bc, this::blockTemplate, this::onMined);
+        miner.start();
+
         while (bLoop) {
             try { sleep(10L); } catch (InterruptedException ignored) {}
 
             fetchInvectory();
 
-            if (!bMining) {
-                bMining = true;
-                bMineThreadStart = false;
-                new Thread(new Runnable() {
-                    public void run() {
-                        bMineThreadStart = true;
-                        mineBlock();
-                        bMining = false;
-                    }
-                }).start();
-
-                while (!bMineThreadStart)
-                    try { sleep(10L); } catch (InterruptedException ignored) {}
-            }
-
             // 고아 블록의 이전 블록 가져오기
             ConcurrentHashMap<String, Block> orphanBlocks = bc.getOrphanBlock();
             for (Block block : orphanBlocks.values()) {
@@ -166,13 +156,19 @@ public class Node extends Thread implements NetworkListener {
                 network.sendInv(_nodeId, Network.TYPE.BLOCK, Utils.bytesConcat(blocks.toArray(new byte[][]{})));
         }
 
+        miner.close();
+        try { miner.join(); } catch (InterruptedException ignored) {}
+
         network.close();
         NetworkHandler.removeListener(nodeId);
+        bc.close();
+        db.close();
     }
     public void close() { bLoop = false; }
 
-    private void mineBlock() {
-        if (txPool.size() < BLOCK_TX_NUM-1 && LocalTime.now().isBefore(nextMineTime)) return; // Tx 부족, 시간 필요
+    // transactions of the next block, null if there is nothing to mine yet
+    private Transaction[] blockTemplate() {
+        if (txPool.size() < BLOCK_TX_NUM-1 && LocalTime.now().isBefore(nextMineTime)) return null; // Tx 부족, 시간 필요
 
         // Transaction 준비
         ArrayList<Transaction> txList = new ArrayList<>();
@@ -208,12 +204,11 @@ public class Node extends Thread implements NetworkListener {
             txList.add(tx);
         }
 
-        if (txList.size() == 0) return ; // Tx 없음
+        if (txList.size() == 0) return null; // Tx 없음
         txList.add(new Transaction(wallet.getAddress(), ""));
-
-        Block newBlock = bc.mineBlock(txList.toArray(new Transaction[]{}));
-        if (newBlock == null) return; // 채굴 실패
-
+        return txList.toArray(new Transaction[]{});
+    }
+    private void onMined(Block newBlock) {
         nextMineTime = LocalTime.now().plusSeconds(BLOCK_MINE_INTERVAL);
 
         System.out.println(nodeId + "이 " + Utils.toHexString(newBlock.getHash()) + " 블록을 채굴!!");
@@ -259,7 +254,7 @@ public class Node extends Thread implements NetworkListener {
             network.connectTo(from);
     }
     private void handleBlock(String from, byte[] data) {
-        Block block = Utils.toObject(data);
+        Block block = new Block(data);
         String blockHash = Utils.toHexString(block.getHash());
 
         BlockSignalHandler.callEvent(from, nodeId, block);
@@ -297,7 +292,7 @@ public class Node extends Thread implements NetworkListener {
 
                     String hash = Utils.toHexString(item);
 
-                    if (!invBlock.contains(hash) && bc.findBlock(item) == null)
+                    if (!invBlock.contains(hash) && !bc.hasBlock(item))
                         invBlock.add(hash);
                 }
                 break;
@@ -317,11 +312,11 @@ public class Node extends Thread implements NetworkListener {
         }
     }
     private void handleGetBlocks(String from) {
-        Iterator<Block> iter = bc.iterator();
+        Iterator<BlockView> iter = bc.viewIterator();
         ArrayList<byte[]> blockHashes = new ArrayList<>();
 
         while (iter.hasNext()) {
-            Block block = iter.next();
+            BlockView block = iter.next();
             blockHashes.add(block.getHash());
         }
 
@@ -358,13 +353,14 @@ public class Node extends Thread implements NetworkListener {
         }
     }
     private void handleTx(String from, byte[] data) {
-        Transaction tx = Utils.toObject(data);
+        Transaction tx = Transaction.fromBytes(data);
         String id = Utils.toHexString(tx.getId());
 
         invTx.remove(id);
 
         if (!txPool.containsKey(id)) {
             txPool.put(id, tx);
+            poolChanged();
 
             // 전파
             for (String _nodeId : network.getConnList()){
@@ -376,7 +372,7 @@ public class Node extends Thread implements NetworkListener {
     private void handleVersion(String from, byte[] data) {
         if (Arrays.equals(bc.getTip(), data)) return ; // 같은 체인 유지
 
-        if (bc.findBlock(data) != null) // 나한테 있는 체인
+        if (bc.hasBlock(data)) // 나한테 있는 체인
             network.sendVersion(from, bc.getTip());
         else // 나한테 없는 체인
             network.sendGetBlocks(from);
@@ -397,6 +393,12 @@ public class Node extends Thread implements NetworkListener {
         }
     }
 
+    // a new transaction can go into the next block template
+    private void poolChanged() {
+        MiningService m = miner;
+        if (m != null) m.notifyPool();
+    }
+
     public ArrayList<Transaction> getTxsFromTxPool() {
         Collection col = txPool.values();
         ArrayList<Transaction> txs = new ArrayList<>(col);
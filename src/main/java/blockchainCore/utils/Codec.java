@@ -0,0 +1,124 @@
+package blockchainCore.utils;
+
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+
+// primitives of the binary format of blocks and transactions.
+// integers are LEB128 varints, hashes are fixed 32 bytes (all zero = empty), byte strings are length prefixed.
+public class Codec {
+    public static final int HASH_SIZE = 32;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final ThreadLocal<KeyFactory> keyFactory = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance("EC");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    public static void putVarInt(ByteBuffer buf, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    public static long getVarLong(ByteBuffer buf) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    public static int getVarInt(ByteBuffer buf) {
+        long v = getVarLong(buf);
+        if (v > Integer.MAX_VALUE) throw new IllegalArgumentException("varint out of range");
+        return (int) v;
+    }
+
+    public static int varIntSize(long v) {
+        int size = 1;
+        while ((v & ~0x7FL) != 0) {
+            v >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // signed values, zigzag encoded
+    public static void putSignedVarInt(ByteBuffer buf, int v) { putVarInt(buf, ((v << 1) ^ (v >> 31)) & 0xffffffffL); }
+    public static int getSignedVarInt(ByteBuffer buf) {
+        int v = (int) getVarLong(buf);
+        return (v >>> 1) ^ -(v & 1);
+    }
+    public static int signedVarIntSize(int v) { return varIntSize(((v << 1) ^ (v >> 31)) & 0xffffffffL); }
+
+    public static void putHash(ByteBuffer buf, byte[] hash) {
+        if (hash == null || hash.length == 0) {
+            for (int i = 0; i < HASH_SIZE; i++) buf.put((byte) 0);
+            return;
+        }
+        if (hash.length != HASH_SIZE) throw new IllegalArgumentException("hash must be " + HASH_SIZE + " bytes");
+        buf.put(hash);
+    }
+
+    public static byte[] getHash(ByteBuffer buf) {
+        byte[] hash = new byte[HASH_SIZE];
+        buf.get(hash);
+        for (byte b : hash)
+            if (b != 0) return hash;
+        return EMPTY;
+    }
+
+    public static void putBytes(ByteBuffer buf, byte[] b) {
+        putVarInt(buf, b.length);
+        buf.put(b);
+    }
+    public static byte[] getBytes(ByteBuffer buf) {
+        byte[] b = new byte[getVarInt(buf)];
+        buf.get(b);
+        return b;
+    }
+    public static int bytesSize(byte[] b) { return varIntSize(b.length) + b.length; }
+
+    // byte strings that may be null : length + 1, 0 for null
+    public static void putNullableBytes(ByteBuffer buf, byte[] b) {
+        if (b == null) {
+            putVarInt(buf, 0);
+            return;
+        }
+        putVarInt(buf, b.length + 1L);
+        buf.put(b);
+    }
+    public static byte[] getNullableBytes(ByteBuffer buf) {
+        int len = getVarInt(buf);
+        if (len == 0) return null;
+        byte[] b = new byte[len - 1];
+        buf.get(b);
+        return b;
+    }
+    public static int nullableBytesSize(byte[] b) { return b == null ? 1 : varIntSize(b.length + 1L) + b.length; }
+
+    // public keys travel as their X.509 encoding
+    public static byte[] encodePublicKey(PublicKey key) { return key == null ? null : key.getEncoded(); }
+    public static PublicKey decodePublicKey(byte[] encoded) {
+        if (encoded == null) return null;
+        try {
+            return keyFactory.get().generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("invalid public key", e);
+        }
+    }
+
+    public static void checkVersion(ByteBuffer buf, int version, String what) {
+        int v = buf.get() & 0xff;
+        if (v != version) throw new IllegalArgumentException("unsupported " + what + " version " + v);
+    }
+}
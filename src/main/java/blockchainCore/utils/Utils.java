@@ -3,20 +3,99 @@ package blockchainCore.utils;
 import org.bouncycastle.crypto.digests.RIPEMD160Digest;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 public class Utils {
+    public static final int SHA256_SIZE = 32;
+
+    private static final MessageDigest SHA256_PROTOTYPE = newDigest("SHA-256");
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(Utils::newSha256);
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final byte[] HEX_VALUE = new byte[128];
+    static {
+        Arrays.fill(HEX_VALUE, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUE["0123456789abcdef".charAt(i)] = (byte) i;
+            HEX_VALUE["0123456789ABCDEF".charAt(i)] = (byte) i;
+        }
+    }
+
     public static byte[] sha256(byte[] msg) {
-        MessageDigest md = null;
+        MessageDigest md = sha256Digest();
+        md.update(msg);
+
+        return md.digest();
+    }
+
+    // digest into out[off..off+32)
+    public static void sha256(byte[] msg, byte[] out, int off) {
+        MessageDigest md = sha256Digest();
+        md.update(msg);
+        finish(md, out, off);
+    }
+
+    public static byte[] sha256(byte[] msg, int off, int len) {
+        MessageDigest md = sha256Digest();
+        md.update(msg, off, len);
+        return md.digest();
+    }
+
+    // sha256 of the concatenation of parts, without building it
+    public static byte[] sha256Concat(byte[]... parts) {
+        MessageDigest md = sha256Digest();
+        for (byte[] part : parts) md.update(part);
+        return md.digest();
+    }
+
+    public static void sha256Concat(byte[] out, int off, byte[]... parts) {
+        MessageDigest md = sha256Digest();
+        for (byte[] part : parts) md.update(part);
+        finish(md, out, off);
+    }
+
+    // sha256 over the remaining bytes of each buffer, positions are left untouched
+    public static byte[] sha256(ByteBuffer... parts) {
+        MessageDigest md = sha256Digest();
+        for (ByteBuffer part : parts) md.update(part.duplicate());
+        return md.digest();
+    }
+
+    // reset SHA-256 digest owned by the calling thread.
+    // do not hold it across another sha256 call of this class on the same thread.
+    public static MessageDigest sha256Digest() {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return md;
+    }
+
+    // private SHA-256 digest, for callers that keep it
+    public static MessageDigest newSha256() {
         try {
-            md = MessageDigest.getInstance("SHA-256");
+            return (MessageDigest) SHA256_PROTOTYPE.clone();
+        } catch (CloneNotSupportedException e) {
+            return newDigest("SHA-256");
+        }
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
         } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            throw new IllegalStateException(e);
         }
-        md.update(msg);
+    }
 
-        return md.digest();
+    private static void finish(MessageDigest md, byte[] out, int off) {
+        try {
+            md.digest(out, off, SHA256_SIZE);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 
     public static byte[] ripemd160(byte[] msg) {
@@ -28,35 +107,38 @@ public class Utils {
     }
 
     public static byte[] bytesConcat(byte[]... bytes) {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        int len = 0;
+        for (byte[] b : bytes) len += b.length;
 
+        byte[] out = new byte[len];
+        int pos = 0;
         for (byte[] b : bytes) {
-            try {
-                outputStream.write(b);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            System.arraycopy(b, 0, out, pos, b.length);
+            pos += b.length;
         }
 
-        return outputStream.toByteArray();
+        return out;
     }
 
     public static String toHexString(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
+        char[] hex = new char[bytes.length * 2];
 
-        for (byte b : bytes) {
-            sb.append(String.format("%02X", b & 0xff));
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xf];
         }
 
-        return sb.toString();
+        return new String(hex);
     }
 
     public static byte[] hexToBytes(String s) {
         int len = s.length();
         byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                    + Character.digit(s.charAt(i+1), 16));
+        for (int i = 0; i < len - 1; i += 2) {
+            char hi = s.charAt(i), lo = s.charAt(i + 1);
+            int v = (hi | lo) < 128 ? HEX_VALUE[hi] << 4 | HEX_VALUE[lo] : -1;
+            if (v < 0) throw new IllegalArgumentException("not a hex string: " + s);
+            data[i / 2] = (byte) v;
         }
         return data;
     }
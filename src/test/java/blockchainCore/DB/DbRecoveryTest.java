@@ -0,0 +1,228 @@
+package blockchainCore.DB;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+// a db that is dropped without close() stands for a crash : the log is on disk, no checkpoint was taken.
+// the dropped instances are closed in tearDown only to release their files.
+public class DbRecoveryTest {
+    private static final String STATE = "chainstate";
+
+    private File dir;
+    private final ArrayList<Db> open = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("db-recovery").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (Db db : open) {
+            try { db.close(); } catch (RuntimeException ignored) {}
+        }
+        delete(dir);
+    }
+
+    private Db open() {
+        Db db = new Db(dir.getPath());
+        open.add(db);
+        return db;
+    }
+
+    private static void put(Db db, String key, String value) {
+        db.write(db.newBatch().put(STATE, key, bytes(value)));
+    }
+
+    private static String get(Db db, String key) {
+        byte[] v = db.getBucket(STATE).get(key);
+        return v == null ? null : new String(v);
+    }
+
+    private static byte[] bytes(String s) { return s.getBytes(); }
+
+    private File wal() { return new File(dir, "wal"); }
+
+    @Test
+    public void replaysBatchesAfterCrash() {
+        Db db = open();
+        put(db, "a", "1");
+        db.write(db.newBatch().put(STATE, "b", bytes("2")).put(STATE, "c", bytes("3")));
+        db.write(db.newBatch().delete(STATE, "a").put(STATE, "b", bytes("4")));
+
+        Db recovered = open();
+        assertNull(get(recovered, "a"));
+        assertEquals("4", get(recovered, "b"));
+        assertEquals("3", get(recovered, "c"));
+        assertEquals(2, recovered.getBucket(STATE).count());
+    }
+
+    @Test
+    public void replaysClear() {
+        Db db = open();
+        put(db, "a", "1");
+        db.write(db.newBatch().clear(STATE).put(STATE, "b", bytes("2")));
+
+        Db recovered = open();
+        assertNull(get(recovered, "a"));
+        assertEquals("2", get(recovered, "b"));
+    }
+
+    @Test
+    public void dropsTornRecordAtTheEnd() throws IOException {
+        Db db = open();
+        put(db, "a", "1");
+        put(db, "b", "2");
+        long complete = wal().length();
+        put(db, "c", "3");
+        long full = wal().length();
+
+        // 마지막 레코드 중간에서 잘림
+        truncate(wal(), complete + (full - complete) / 2);
+
+        Db recovered = open();
+        assertEquals("1", get(recovered, "a"));
+        assertEquals("2", get(recovered, "b"));
+        assertNull(get(recovered, "c"));
+        assertEquals("the torn tail is cut off", complete, wal().length());
+
+        // the log goes on from the cut, the next crash keeps the new batch
+        put(recovered, "d", "4");
+        Db again = open();
+        assertEquals("2", get(again, "b"));
+        assertNull(get(again, "c"));
+        assertEquals("4", get(again, "d"));
+    }
+
+    @Test
+    public void dropsTornHeader() throws IOException {
+        Db db = open();
+        put(db, "a", "1");
+        long complete = wal().length();
+        put(db, "b", "2");
+
+        truncate(wal(), complete + 3);
+
+        Db recovered = open();
+        assertEquals("1", get(recovered, "a"));
+        assertNull(get(recovered, "b"));
+        assertEquals(complete, wal().length());
+    }
+
+    @Test
+    public void stopsAtCorruptedRecord() throws IOException {
+        Db db = open();
+        put(db, "a", "1");
+        long complete = wal().length();
+        put(db, "b", "2");
+        put(db, "c", "3");
+
+        // 두번째 레코드의 데이터 한 바이트 변경, crc 가 맞지 않음
+        try (RandomAccessFile raf = new RandomAccessFile(wal(), "rw")) {
+            raf.seek(complete + 20);
+            int b = raf.read();
+            raf.seek(complete + 20);
+            raf.write(b ^ 0xff);
+        }
+
+        Db recovered = open();
+        assertEquals("1", get(recovered, "a"));
+        assertNull(get(recovered, "b"));
+        assertNull("nothing after a bad record is applied", get(recovered, "c"));
+    }
+
+    @Test
+    public void recoversFromCheckpointAndLogTail() {
+        Db db = open();
+        put(db, "a", "1");
+        put(db, "b", "2");
+        db.checkpoint();
+        assertEquals("checkpoint empties the log", 0, wal().length());
+
+        put(db, "b", "3");
+        put(db, "c", "4");
+
+        Db recovered = open();
+        assertEquals("1", get(recovered, "a"));
+        assertEquals("3", get(recovered, "b"));
+        assertEquals("4", get(recovered, "c"));
+    }
+
+    @Test
+    public void checkpointsWhenTheLogIsFull() {
+        Db db = open();
+        db.setCheckpointSize(256);
+        for (int i = 0; i < 100; i++)
+            put(db, "k" + i, "v" + i);
+        assertTrue(wal().length() < 256);
+        assertTrue(new File(dir, "snapshot").exists());
+
+        Db recovered = open();
+        for (int i = 0; i < 100; i++)
+            assertEquals("v" + i, get(recovered, "k" + i));
+    }
+
+    @Test
+    public void skipsRecordsAlreadyInSnapshot() throws IOException {
+        // crash after the snapshot is renamed but before the log is reset :
+        // the old log is still there and its records must not be applied over the snapshot
+        Db db = open();
+        put(db, "a", "1");
+        File oldLog = new File(dir, "wal.old");
+        Files.copy(wal().toPath(), oldLog.toPath());
+
+        put(db, "a", "2");
+        db.checkpoint();
+        Files.copy(oldLog.toPath(), wal().toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        Db recovered = open();
+        assertEquals("2", get(recovered, "a"));
+    }
+
+    @Test
+    public void replaysIntoFileBuckets() {
+        Db db = open();
+        db.write(db.newBatch().put("blocks", "h1", bytes("block1")).put(STATE, "tip", bytes("h1")));
+        db.write(db.newBatch().put("blocks", "h2", bytes("block2")).put(STATE, "tip", bytes("h2")));
+
+        Db recovered = open();
+        assertEquals("h2", get(recovered, "tip"));
+        assertArrayEquals(bytes("block1"), recovered.getBucket("blocks").get("h1"));
+        assertArrayEquals(bytes("block2"), recovered.getBucket("blocks").get("h2"));
+        assertEquals(2, recovered.getBucket("blocks").count());
+    }
+
+    @Test
+    public void cleanCloseLeavesNoLog() {
+        Db db = new Db(dir.getPath());
+        put(db, "a", "1");
+        db.close();
+        assertEquals(0, wal().length());
+
+        Db reopened = open();
+        assertEquals("1", get(reopened, "a"));
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null)
+            for (File c : children) delete(c);
+        f.delete();
+    }
+}
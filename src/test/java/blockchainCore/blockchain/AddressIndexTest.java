@@ -0,0 +1,61 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.DB.Db;
+import blockchainCore.blockchain.transaction.Transaction;
+import blockchainCore.blockchain.transaction.TxOutput;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class AddressIndexTest {
+    private final ChainFixture f = new ChainFixture();
+
+    @Test
+    public void followsConnectAndDisconnect() throws Exception {
+        String a = f.newAddress(), b = f.newAddress(), c = f.newAddress();
+        Db db = new Db();
+        Blockchain bc = new Blockchain(a, db);
+        Block genesis = bc.findBlock(bc.getTip());
+        assertEquals(50, f.balance(bc, a));
+        assertEquals(Collections.singletonList(50), f.outputs(bc, a));
+
+        // a pays 30 to b, 20 back to itself, and mines another 50
+        Transaction spend = f.spend(genesis.getTransactions()[0], 0, a, new TxOutput(30, b), new TxOutput(20, a));
+        Block a1 = ChainFixture.mine(genesis, spend, ChainFixture.coinbase(a));
+        assertTrue(bc.addBlock(a1));
+
+        assertEquals(70, f.balance(bc, a));
+        assertEquals(30, f.balance(bc, b));
+        assertEquals(Arrays.asList(20, 50), f.outputs(bc, a));
+        assertEquals(Collections.singletonList(30), f.outputs(bc, b));
+        assertEquals(3, db.getBucket("addrindex").count());
+
+        // b spends everything to c in the next block
+        Block a2 = ChainFixture.mine(a1, f.spend(spend, 0, b, new TxOutput(30, c)), ChainFixture.coinbase(a));
+        assertTrue(bc.addBlock(a2));
+        assertEquals(0, f.balance(bc, b));
+        assertTrue(f.outputs(bc, b).isEmpty());
+        assertEquals(30, f.balance(bc, c));
+        assertEquals(120, f.balance(bc, a));
+
+        // a longer branch from genesis disconnects a2 and a1
+        Block b1 = ChainFixture.mine(genesis, ChainFixture.coinbase(c));
+        Block b2 = ChainFixture.mine(b1, ChainFixture.coinbase(c));
+        Block b3 = ChainFixture.mine(b2, ChainFixture.coinbase(c));
+        assertTrue(bc.addBlock(b1));
+        assertTrue(bc.addBlock(b2));
+        assertTrue(bc.addBlock(b3));
+        assertArrayEquals(b3.getHash(), bc.getTip());
+
+        assertEquals(50, f.balance(bc, a));
+        assertEquals(Collections.singletonList(50), f.outputs(bc, a));
+        assertEquals(0, f.balance(bc, b));
+        assertTrue(f.outputs(bc, b).isEmpty());
+        assertEquals(150, f.balance(bc, c));
+        assertEquals(Arrays.asList(50, 50, 50), f.outputs(bc, c));
+        assertEquals(4, db.getBucket("addrindex").count());
+    }
+}
@@ -0,0 +1,47 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.blockchain.transaction.Transaction;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BlockCacheTest {
+    private static final String ADDRESS = "1111111111111111111114oLvT2";
+
+    private static Block block(int height) {
+        Block block = new Block(new Transaction[]{new Transaction(ADDRESS, "b" + height)}, new byte[0], height);
+        block.setHash(new byte[]{(byte) height});
+        return block;
+    }
+
+    @Test
+    public void cachedBlocksAreReadOnly() {
+        BlockCache cache = new BlockCache();
+        Block block = block(1);
+        cache.put(block, 100);
+
+        Block cached = cache.get(block.getHash());
+        assertSame(block, cached);
+        assertTrue(cached.isReadOnly());
+        try {
+            cached.setNonce(7);
+            fail("a shared block was changed");
+        } catch (IllegalStateException expected) {}
+        assertEquals(0, cached.getNonce());
+    }
+
+    @Test
+    public void evictsByBytes() {
+        BlockCache cache = new BlockCache(250);
+        Block a = block(1), b = block(2), c = block(3);
+        cache.put(a, 100);
+        cache.put(b, 100);
+        cache.get(a.getHash());
+        cache.put(c, 100);
+
+        assertTrue(cache.contains(a.getHash()));
+        assertFalse("least recently used goes first", cache.contains(b.getHash()));
+        assertTrue(cache.contains(c.getHash()));
+        assertEquals(200, cache.getBytes());
+    }
+}
@@ -0,0 +1,83 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.DB.Cursor;
+import blockchainCore.DB.Db;
+import blockchainCore.blockchain.consensus.ProofOfWork;
+import blockchainCore.blockchain.transaction.*;
+import blockchainCore.blockchain.wallet.Wallet;
+import blockchainCore.blockchain.wallet.Wallets;
+import blockchainCore.utils.Pair;
+import blockchainCore.utils.Utils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.Security;
+import java.util.*;
+
+// wallets, transactions and mined blocks for the tests, built by hand so a test can put them on any branch
+public class ChainFixture {
+    static {
+        // secp256k1 is not in every JDK
+        if (Security.getProvider("BC") == null) Security.insertProviderAt(new BouncyCastleProvider(), 2);
+    }
+
+    public final Wallets wallets = new Wallets();
+
+    public String newAddress() { return wallets.createWallet(); }
+
+    public Wallet wallet(String address) { return wallets.getWallet(address); }
+
+    public byte[] pubKeyHash(String address) {
+        return Utils.ripemd160(Utils.sha256(wallet(address).getPublicKey().getEncoded()));
+    }
+
+    public static Transaction coinbase(String to) { return new Transaction(to, ""); }
+
+    // spends output 'vout' of prev (owned by 'from') into the given outputs, signed
+    public Transaction spend(Transaction prev, int vout, String from, TxOutput... outputs) throws Exception {
+        ArrayList<TxInput> vin = new ArrayList<>();
+        vin.add(new TxInput(prev.getId(), vout, wallet(from).getPublicKey(), null));
+        ArrayList<TxOutput> vouts = new ArrayList<>();
+        for (TxOutput out : outputs) vouts.add(out);
+
+        Transaction tx = new Transaction(new byte[]{}, vin, vouts);
+        HashMap<String, Transaction> prevTxs = new HashMap<>();
+        prevTxs.put(Utils.toHexString(prev.getId()), prev);
+        tx.sign(wallet(from).getPrivateKey(), prevTxs);
+        return tx;
+    }
+
+    // a block on top of 'prev', mined with the limit bits (every block below the first retarget)
+    public static Block mine(byte[] prev, int height, Transaction... txs) {
+        Block block = new Block(txs, prev, height);
+        // a fresh one each time, a ProofOfWork gives up on heights not above the last one it mined
+        ProofOfWork pow = new ProofOfWork();
+        pow.setThreads(1);
+        if (!pow.mine(block)) throw new IllegalStateException("mining failed");
+        return block;
+    }
+
+    public static Block mine(Block prev, Transaction... txs) { return mine(prev.getHash(), prev.getHeight() + 1, txs); }
+
+    public long balance(Blockchain bc, String address) {
+        return new UTXOSet(bc).getBalance(pubKeyHash(address));
+    }
+
+    // values of the unspent outputs an address can spend, through the address index
+    public List<Integer> outputs(Blockchain bc, String address) {
+        ArrayList<Integer> values = new ArrayList<>();
+        for (TxOutput out : new UTXOSet(bc).findUTXO(pubKeyHash(address))) values.add(out.getValue());
+        Collections.sort(values);
+        return values;
+    }
+
+    // content of a bucket in hex, key -> value
+    public static TreeMap<String, String> dump(Db db, String bucket) {
+        TreeMap<String, String> content = new TreeMap<>();
+        Cursor c = db.getBucket(bucket).Cursor();
+        while (c.hasNext()) {
+            Pair<byte[], byte[]> kv = c.next();
+            content.put(Utils.toHexString(kv.getKey()), Utils.toHexString(kv.getValue()));
+        }
+        return content;
+    }
+}
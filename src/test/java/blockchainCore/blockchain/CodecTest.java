@@ -0,0 +1,117 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.blockchain.consensus.ProofOfWork;
+import blockchainCore.blockchain.transaction.*;
+import blockchainCore.utils.Utils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class CodecTest {
+    private final ChainFixture f = new ChainFixture();
+
+    private static void assertSameTx(Transaction expected, Transaction actual) {
+        assertArrayEquals(expected.getId(), actual.getId());
+        assertArrayEquals("every field is in the hash", expected.Hash(), actual.Hash());
+        assertArrayEquals(expected.toBytes(), actual.toBytes());
+    }
+
+    @Test
+    public void coinbaseRoundTrip() {
+        Transaction cb = ChainFixture.coinbase(f.newAddress());
+        Transaction decoded = Transaction.fromBytes(cb.toBytes());
+
+        assertSameTx(cb, decoded);
+        assertTrue(decoded.isCoinBase());
+        assertEquals(cb.getVout().get(0).getValue(), decoded.getVout().get(0).getValue());
+    }
+
+    @Test
+    public void signedTransactionRoundTrip() throws Exception {
+        String a = f.newAddress(), b = f.newAddress();
+        Transaction cb = ChainFixture.coinbase(a);
+        Transaction tx = f.spend(cb, 0, a, new TxOutput(30, b), new TxOutput(20, a));
+
+        Transaction decoded = Transaction.fromBytes(tx.toBytes());
+        assertSameTx(tx, decoded);
+        assertEquals(2, decoded.getVout().size());
+        assertArrayEquals(f.pubKeyHash(b), decoded.getVout().get(0).getPublicKeyHash());
+        assertArrayEquals(tx.getVin().get(0).getSignature(), decoded.getVin().get(0).getSignature());
+
+        // the decoded public key still verifies the signature
+        HashMap<String, Transaction> prev = new HashMap<>();
+        prev.put(Utils.toHexString(cb.getId()), cb);
+        assertTrue(decoded.Verify(prev));
+    }
+
+    @Test
+    public void blockRoundTrip() throws Exception {
+        String a = f.newAddress(), b = f.newAddress();
+        Transaction cb = ChainFixture.coinbase(a);
+        Block genesis = ChainFixture.mine(new byte[0], 0, cb);
+        Block block = ChainFixture.mine(genesis, f.spend(cb, 0, a, new TxOutput(50, b)), ChainFixture.coinbase(b));
+
+        byte[] bytes = block.toBytes();
+        assertEquals(bytes.length, block.encodedSize());
+
+        Block decoded = new Block(bytes);
+        assertArrayEquals(block.getHash(), decoded.getHash());
+        assertArrayEquals(block.getPrevBlockHash(), decoded.getPrevBlockHash());
+        assertArrayEquals(block.getMerkleRoot(), decoded.getMerkleRoot());
+        assertEquals(block.getNonce(), decoded.getNonce());
+        assertEquals(block.getHeight(), decoded.getHeight());
+        assertEquals(block.getTimestamp(), decoded.getTimestamp());
+        assertEquals(block.getBits(), decoded.getBits());
+        assertEquals(2, decoded.getTransactions().length);
+        for (int i = 0; i < 2; i++)
+            assertSameTx(block.getTransactions()[i], decoded.getTransactions()[i]);
+
+        assertArrayEquals(bytes, decoded.toBytes());
+        assertArrayEquals(block.getBytesExceptHash(), decoded.getBytesExceptHash());
+        assertTrue(ProofOfWork.Validate(decoded));
+    }
+
+    @Test
+    public void outputsRoundTrip() {
+        String a = f.newAddress();
+        for (int value : new int[]{0, 1, 50, 127, 128, Integer.MAX_VALUE}) {
+            TxOutput out = new TxOutput(value, a);
+
+            ByteBuffer buf = ByteBuffer.allocate(out.encodedSize());
+            out.encode(buf);
+            assertFalse(buf.hasRemaining());
+            buf.flip();
+            TxOutput decoded = TxOutput.decode(buf);
+            assertEquals(value, decoded.getValue());
+            assertArrayEquals(out.getPublicKeyHash(), decoded.getPublicKeyHash());
+
+            TxOutput stored = UTXOSet.decodeOutput(UTXOSet.encodeOutput(out));
+            assertEquals(value, stored.getValue());
+            assertArrayEquals(out.getPublicKeyHash(), stored.getPublicKeyHash());
+        }
+    }
+
+    @Test
+    public void undoRoundTrip() {
+        String a = f.newAddress();
+        ArrayList<Transaction> txs = new ArrayList<>();
+        BlockUndo undo = new BlockUndo();
+        for (int i = 0; i < 3; i++) {
+            Transaction cb = ChainFixture.coinbase(a);
+            txs.add(cb);
+            undo.add(cb.getId(), i * 200, new TxOutput(10 + i, a));
+        }
+
+        BlockUndo decoded = BlockUndo.fromBytes(undo.toBytes());
+        assertEquals(3, decoded.size());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(txs.get(i).getId(), decoded.getTxId(i));
+            assertEquals(i * 200, decoded.getvOut(i));
+            assertEquals(10 + i, decoded.getOutput(i).getValue());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.DB.Db;
+import blockchainCore.blockchain.transaction.Transaction;
+import blockchainCore.blockchain.transaction.TxOutput;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FindTransactionTest {
+    private final ChainFixture f = new ChainFixture();
+
+    private static boolean found(Blockchain bc, Transaction tx) {
+        Transaction t = bc.findTransaction(tx.getId());
+        return t != null && Arrays.equals(t.Hash(), tx.Hash());
+    }
+
+    @Test
+    public void findsMainChainTransactionsOnly() throws Exception {
+        String a = f.newAddress(), b = f.newAddress();
+        Blockchain bc = new Blockchain(a, new Db());
+        Block genesis = bc.findBlock(bc.getTip());
+        Transaction genesisCb = genesis.getTransactions()[0];
+
+        Transaction spend = f.spend(genesisCb, 0, a, new TxOutput(50, b));
+        Transaction cb1 = ChainFixture.coinbase(a);
+        Block a1 = ChainFixture.mine(genesis, spend, cb1);
+        assertTrue(bc.addBlock(a1));
+
+        assertTrue(found(bc, genesisCb));
+        assertTrue(found(bc, spend));
+        assertTrue("coinbase at the end of the block", found(bc, cb1));
+        assertNull(bc.findTransaction(ChainFixture.coinbase(a).getId()));
+
+        // same height, first seen stays the tip : its transactions are not indexed
+        Transaction sideCb = ChainFixture.coinbase(b);
+        Block b1 = ChainFixture.mine(genesis, sideCb);
+        assertTrue(bc.addBlock(b1));
+        assertFalse(found(bc, sideCb));
+
+        // the side branch becomes the main chain, the index follows
+        Transaction sideCb2 = ChainFixture.coinbase(b);
+        assertTrue(bc.addBlock(ChainFixture.mine(b1, sideCb2)));
+        assertTrue(found(bc, sideCb));
+        assertTrue(found(bc, sideCb2));
+        assertFalse(found(bc, spend));
+        assertFalse(found(bc, cb1));
+        assertTrue(found(bc, genesisCb));
+    }
+}
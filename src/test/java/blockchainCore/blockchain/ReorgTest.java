@@ -0,0 +1,101 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.DB.Db;
+import blockchainCore.blockchain.transaction.*;
+import blockchainCore.utils.Utils;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ReorgTest {
+    private static final String[] STATE = {"chainstate", "addrindex", "balance"};
+
+    private final ChainFixture f = new ChainFixture();
+
+    // every bucket of the chainstate, with the coins cache written out
+    private static Map<String, TreeMap<String, String>> state(Blockchain bc) {
+        bc.flush();
+        HashMap<String, TreeMap<String, String>> state = new HashMap<>();
+        for (String bucket : STATE) state.put(bucket, ChainFixture.dump(bc.getDb(), bucket));
+        return state;
+    }
+
+    // outpoints of the chainstate against a walk over the blocks from the tip
+    private static void assertMatchesScan(Blockchain bc) {
+        TreeSet<String> expected = new TreeSet<>();
+        for (Map.Entry<String, TxOutputs> e : bc.findUTXO().entrySet())
+            for (Integer vout : e.getValue().getOutputs().keySet())
+                expected.add(Utils.toHexString(UTXOSet.outpoint(Utils.hexToBytes(e.getKey()), vout)));
+        bc.flush();
+        assertEquals(expected, ChainFixture.dump(bc.getDb(), "chainstate").keySet());
+    }
+
+    // drop the entries whose key holds one of 'parts' (hex)
+    private static Map<String, TreeMap<String, String>> without(Map<String, TreeMap<String, String>> state, String... parts) {
+        HashMap<String, TreeMap<String, String>> rest = new HashMap<>();
+        for (Map.Entry<String, TreeMap<String, String>> bucket : state.entrySet()) {
+            TreeMap<String, String> entries = new TreeMap<>(bucket.getValue());
+            entries.keySet().removeIf(key -> Arrays.stream(parts).anyMatch(key::contains));
+            rest.put(bucket.getKey(), entries);
+        }
+        return rest;
+    }
+
+    @Test
+    public void reorgRestoresTheChainstateExactly() throws Exception {
+        String a = f.newAddress(), b = f.newAddress(), c = f.newAddress(), d = f.newAddress();
+        Blockchain bc = new Blockchain(a, new Db());
+        Block genesis = bc.findBlock(bc.getTip());
+        Transaction genesisCb = genesis.getTransactions()[0];
+
+        // main branch : a pays b, b pays c
+        Transaction pay = f.spend(genesisCb, 0, a, new TxOutput(30, b), new TxOutput(20, a));
+        Block a1 = ChainFixture.mine(genesis, pay, ChainFixture.coinbase(a));
+        Block a2 = ChainFixture.mine(a1, f.spend(pay, 0, b, new TxOutput(25, c), new TxOutput(5, b)), ChainFixture.coinbase(b));
+        assertTrue(bc.addBlock(a1));
+        assertTrue(bc.addBlock(a2));
+
+        UTXOSet utxoSet = new UTXOSet(bc);
+        assertTrue(utxoSet.hasUndo(a1.getHash()));
+        assertTrue(utxoSet.hasUndo(a2.getHash()));
+        Map<String, TreeMap<String, String>> atA2 = state(bc);
+        long[] balances = {f.balance(bc, a), f.balance(bc, b), f.balance(bc, c)};
+
+        // side branch spends the same genesis output differently and overtakes
+        Transaction other = f.spend(genesisCb, 0, a, new TxOutput(50, c));
+        Block b1 = ChainFixture.mine(genesis, other, ChainFixture.coinbase(c));
+        Block b2 = ChainFixture.mine(b1, ChainFixture.coinbase(c));
+        Block b3 = ChainFixture.mine(b2, f.spend(other, 0, c, new TxOutput(10, b), new TxOutput(40, c)), ChainFixture.coinbase(c));
+        assertTrue(bc.addBlock(b1));
+        assertTrue(bc.addBlock(b2));
+        assertArrayEquals("a tie keeps the first tip", a2.getHash(), bc.getTip());
+        assertTrue(bc.addBlock(b3));
+        assertArrayEquals(b3.getHash(), bc.getTip());
+
+        assertMatchesScan(bc);
+        assertEquals(0, f.balance(bc, a));
+        assertEquals(10, f.balance(bc, b));
+        assertEquals(190, f.balance(bc, c));
+        assertNull("the main branch outputs are gone", utxoSet.getOutput(pay.getId(), 0));
+
+        // back to the first branch, extended by two blocks that only pay d
+        Transaction cb3 = ChainFixture.coinbase(d), cb4 = ChainFixture.coinbase(d);
+        Block a3 = ChainFixture.mine(a2, cb3);
+        Block a4 = ChainFixture.mine(a3, cb4);
+        assertTrue(bc.addBlock(a3));
+        assertTrue(bc.addBlock(a4));
+        assertArrayEquals(a4.getHash(), bc.getTip());
+
+        assertMatchesScan(bc);
+        assertEquals(balances[0], f.balance(bc, a));
+        assertEquals(balances[1], f.balance(bc, b));
+        assertEquals(balances[2], f.balance(bc, c));
+        assertEquals(100, f.balance(bc, d));
+
+        // apart from what a3 and a4 added, every entry is the one it was at a2
+        String pkhD = Utils.toHexString(f.pubKeyHash(d));
+        assertEquals(atA2, without(state(bc), Utils.toHexString(cb3.getId()), Utils.toHexString(cb4.getId()), pkhD));
+    }
+}
@@ -0,0 +1,52 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.DB.Db;
+import blockchainCore.blockchain.consensus.ProofOfWork;
+import blockchainCore.blockchain.transaction.Transaction;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RetargetTest {
+    private final ChainFixture f = new ChainFixture();
+
+    // a block on top of 'prev' with the given time and bits
+    private Block mine(Block prev, long timestamp, int bits) {
+        Block block = new Block(new Transaction[]{ChainFixture.coinbase(f.newAddress())}, prev.getHash(), prev.getHeight() + 1);
+        block.setTimestamp(timestamp);
+        block.setBits(bits);
+        ProofOfWork pow = new ProofOfWork();
+        pow.setThreads(1);
+        assertTrue(pow.mine(block));
+        return block;
+    }
+
+    @Test
+    public void retargetsAtTheWindowBoundary() {
+        Blockchain bc = new Blockchain(f.newAddress(), new Db());
+        Block genesis = bc.findBlock(bc.getTip());
+        Block prev = genesis;
+
+        // a fast window : the blocks in it keep the parent bits
+        for (int h = 1; h < ProofOfWork.RETARGET_INTERVAL; h++) {
+            assertEquals(ProofOfWork.LIMIT_BITS, bc.nextBits(prev.getHash()));
+            prev = mine(prev, genesis.getTimestamp() + h * 10, ProofOfWork.LIMIT_BITS);
+            assertTrue(bc.addBlock(prev));
+        }
+
+        // the window took much less than expected, at most 4 times harder
+        int expected = ProofOfWork.encodeBits(ProofOfWork.decodeBits(ProofOfWork.LIMIT_BITS).shiftRight(2));
+        assertEquals(expected, bc.nextBits(prev.getHash()));
+        long time = prev.getTimestamp() + 10;
+        assertFalse("the old bits at the boundary", bc.addBlock(mine(prev, time, ProofOfWork.LIMIT_BITS)));
+
+        Block boundary = mine(prev, time, expected);
+        assertTrue(bc.addBlock(boundary));
+        assertArrayEquals(boundary.getHash(), bc.getTip());
+
+        // the next block keeps them
+        assertEquals(expected, bc.nextBits(boundary.getHash()));
+        assertFalse(bc.addBlock(mine(boundary, time + 10, ProofOfWork.LIMIT_BITS)));
+        assertTrue(bc.addBlock(mine(boundary, time + 10, expected)));
+    }
+}
@@ -0,0 +1,83 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.DB.Db;
+import blockchainCore.blockchain.transaction.*;
+import blockchainCore.utils.Utils;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class SideBranchTest {
+    private final ChainFixture f = new ChainFixture();
+
+    @Test
+    public void overlayReadsThroughAndHidesSpent() {
+        String a = f.newAddress();
+        Transaction x = ChainFixture.coinbase(a), y = ChainFixture.coinbase(a);
+        HashMap<String, TxOutputs> base = new HashMap<>();
+        TxOutputs outs = new TxOutputs();
+        outs.getOutputs().put(0, x.getVout().get(0));
+        base.put(Utils.toHexString(x.getId()), outs);
+
+        UtxoOverlay overlay = new UtxoOverlay(UtxoView.of(base));
+        assertNotNull(overlay.getOutput(x.getId(), 0));
+        assertNull(overlay.getOutput(y.getId(), 0));
+
+        overlay.spend(x.getId(), 0);
+        overlay.add(y.getId(), 0, y.getVout().get(0));
+        assertNull(overlay.getOutput(x.getId(), 0));
+        assertEquals(50, overlay.getOutput(y.getId(), 0).getValue());
+        assertNotNull("the base is not changed", UtxoView.of(base).getOutput(x.getId(), 0));
+        assertEquals(2, overlay.size());
+    }
+
+    @Test
+    public void sideBranchSpendsAreCheckedAgainstTheBranch() throws Exception {
+        String a = f.newAddress(), b = f.newAddress(), c = f.newAddress();
+        Blockchain bc = new Blockchain(a, new Db());
+        Block genesis = bc.findBlock(bc.getTip());
+        Transaction genesisCb = genesis.getTransactions()[0];
+
+        // main chain : genesis output goes to b, then two more blocks
+        Transaction toB = f.spend(genesisCb, 0, a, new TxOutput(50, b));
+        Block a1 = ChainFixture.mine(genesis, toB, ChainFixture.coinbase(a));
+        Block a2 = ChainFixture.mine(a1, ChainFixture.coinbase(a));
+        Block a3 = ChainFixture.mine(a2, ChainFixture.coinbase(a));
+        assertTrue(bc.addBlock(a1));
+        assertTrue(bc.addBlock(a2));
+        assertTrue(bc.addBlock(a3));
+
+        // side branch from genesis : the genesis output goes to c instead
+        Transaction toC = f.spend(genesisCb, 0, a, new TxOutput(50, c));
+        Transaction cbS1 = ChainFixture.coinbase(c);
+        Block s1 = ChainFixture.mine(genesis, toC, cbS1);
+        assertTrue("spent on the main chain, unspent at the fork point", bc.addBlock(s1));
+        assertArrayEquals(a3.getHash(), bc.getTip());
+
+        // outputs that only exist on the main chain can not be spent on the branch
+        Block bad = ChainFixture.mine(s1, f.spend(toB, 0, b, new TxOutput(50, c)), ChainFixture.coinbase(c));
+        assertFalse(bc.addBlock(bad));
+
+        // outputs created on the branch can
+        Transaction fromC = f.spend(toC, 0, c, new TxOutput(50, b));
+        Block s2 = ChainFixture.mine(s1, fromC, ChainFixture.coinbase(c));
+        assertTrue(bc.addBlock(s2));
+
+        // and not twice along the branch
+        Block twice = ChainFixture.mine(s2, f.spend(toC, 0, c, new TxOutput(50, a)), ChainFixture.coinbase(c));
+        assertFalse(bc.addBlock(twice));
+
+        // the branch overtakes with its own spends
+        Block s3 = ChainFixture.mine(s2, f.spend(cbS1, 0, c, new TxOutput(50, a)), ChainFixture.coinbase(c));
+        assertTrue(bc.addBlock(s3));
+        Block s4 = ChainFixture.mine(s3, ChainFixture.coinbase(c));
+        assertTrue(bc.addBlock(s4));
+        assertArrayEquals(s4.getHash(), bc.getTip());
+        assertEquals(50, f.balance(bc, b));
+        assertEquals(50, f.balance(bc, a));
+        assertEquals(150, f.balance(bc, c));
+        assertNull(new UTXOSet(bc).getOutput(toB.getId(), 0));
+    }
+}
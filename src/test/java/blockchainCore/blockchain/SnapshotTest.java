@@ -0,0 +1,219 @@
+package blockchainCore.blockchain;
+
+import blockchainCore.DB.Bucket;
+import blockchainCore.DB.Db;
+import blockchainCore.DB.WriteBatch;
+import blockchainCore.blockchain.transaction.*;
+import blockchainCore.utils.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+    private final ChainFixture f = new ChainFixture();
+    private final ArrayList<Blockchain> chains = new ArrayList<>();
+    private File dir;
+    private String a, b;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("snapshot").toFile();
+        a = f.newAddress();
+        b = f.newAddress();
+    }
+
+    @After
+    public void tearDown() {
+        for (Blockchain bc : chains) bc.close();
+        delete(dir);
+    }
+
+    private Blockchain track(Blockchain bc) {
+        chains.add(bc);
+        return bc;
+    }
+
+    // genesis, three blocks paying a, then a pays b and b pays back
+    private Blockchain source() throws Exception {
+        Blockchain bc = track(new Blockchain(a, new Db()));
+        for (int i = 0; i < 3; i++) bc.mineBlock(new Transaction[]{ChainFixture.coinbase(a)});
+        bc.mineBlock(new Transaction[]{bc.newUTXOTransaction(f.wallet(a), b, 70, new UTXOSet(bc)), ChainFixture.coinbase(a)});
+        bc.mineBlock(new Transaction[]{bc.newUTXOTransaction(f.wallet(b), a, 20, new UTXOSet(bc)), ChainFixture.coinbase(b)});
+        return bc;
+    }
+
+    // the blocks below the tip, lowest first
+    private static ArrayList<Block> history(Blockchain bc) {
+        ArrayList<Block> blocks = new ArrayList<>();
+        for (Block block : bc.getBlocks())
+            if (!Arrays.equals(block.getHash(), bc.getTip())) blocks.add(block);
+        blocks.sort((x, y) -> x.getHeight() - y.getHeight());
+        return blocks;
+    }
+
+    private static void await(Blockchain bc) throws InterruptedException {
+        for (int i = 0; i < 100 && bc.isSnapshotPending() && !bc.isSnapshotInvalid(); i++) Thread.sleep(50);
+    }
+
+    @Test
+    public void importsAndValidatesInTheBackground() throws Exception {
+        Blockchain src = source();
+        File file = new File(dir, "utxo.snapshot");
+        byte[] contentHash = src.exportSnapshot(file);
+
+        ChainstateSnapshot snapshot = ChainstateSnapshot.read(file);
+        assertArrayEquals(contentHash, snapshot.getContentHash());
+        assertArrayEquals(src.getTip(), snapshot.getTipHash());
+
+        Blockchain bc = track(Blockchain.fromSnapshot(new Db(), snapshot));
+        assertArrayEquals(src.getTip(), bc.getTip());
+        assertTrue(bc.isSnapshotPending());
+        assertEquals(f.balance(src, a), f.balance(bc, a));
+        assertEquals(f.balance(src, b), f.balance(bc, b));
+
+        // usable at once
+        assertNotNull(bc.mineBlock(new Transaction[]{ChainFixture.coinbase(b)}));
+        assertEquals(f.balance(src, b) + 50, f.balance(bc, b));
+
+        for (Block block : history(src)) assertTrue(bc.addBlock(block));
+        await(bc);
+        assertFalse(bc.isSnapshotPending());
+        assertFalse(bc.isSnapshotInvalid());
+
+        // the history is indexed like a chain synced from genesis
+        Block genesis = history(src).get(0);
+        assertNotNull(bc.findTransaction(genesis.getTransactions()[0].getId()));
+        assertTrue(new UTXOSet(bc).hasUndo(history(src).get(1).getHash()));
+    }
+
+    @Test
+    public void mismatchingContentIsReportedInvalid() throws Exception {
+        Blockchain src = source();
+        src.flush();
+
+        // same tip, one output worth more than the blocks say
+        Db forged = new Db();
+        WriteBatch batch = forged.newBatch();
+        boolean changed = false;
+        for (Map.Entry<String, String> e : ChainFixture.dump(src.getDb(), "chainstate").entrySet()) {
+            TxOutput out = UTXOSet.decodeOutput(Utils.hexToBytes(e.getValue()));
+            if (!changed) {
+                out = new TxOutput(out.getValue() + 1000, out.getPublicKeyHash());
+                changed = true;
+            }
+            batch.put("chainstate", Utils.hexToBytes(e.getKey()), UTXOSet.encodeOutput(out));
+        }
+        forged.write(batch);
+
+        File file = new File(dir, "forged.snapshot");
+        Bucket chainstate = forged.getBucket("chainstate");
+        ChainstateSnapshot.write(file, src.findBlock(src.getTip()), chainstate.Cursor(), chainstate.count());
+
+        Blockchain bc = track(Blockchain.fromSnapshot(new Db(), ChainstateSnapshot.read(file)));
+        for (Block block : history(src)) assertTrue(bc.addBlock(block));
+        await(bc);
+        assertTrue(bc.isSnapshotInvalid());
+        assertTrue("the history stays unvalidated", bc.isSnapshotPending());
+    }
+
+    @Test
+    public void sameBlockSpendIsRejectedByBothValidators() throws Exception {
+        // connect path
+        Blockchain main = track(new Blockchain(a, new Db()));
+        Block tipBlock = main.findBlock(main.getTip());
+        Transaction first = f.spend(tipBlock.getTransactions()[0], 0, a, new TxOutput(50, b));
+        Transaction second = f.spend(first, 0, b, new TxOutput(50, a));
+        assertFalse(main.addBlock(ChainFixture.mine(tipBlock, first, second, ChainFixture.coinbase(a))));
+
+        // the same kind of block under a snapshot whose content matches it
+        Transaction genesisCb = ChainFixture.coinbase(a);
+        Block genesis = ChainFixture.mine(new byte[0], 0, genesisCb);
+        Transaction t1 = f.spend(genesisCb, 0, a, new TxOutput(50, b));
+        Transaction t2 = f.spend(t1, 0, b, new TxOutput(50, a));
+        Transaction cb1 = ChainFixture.coinbase(a);
+        Block b1 = ChainFixture.mine(genesis, t1, t2, cb1);
+
+        Db content = new Db();
+        content.write(content.newBatch()
+                .put("chainstate", UTXOSet.outpoint(t2.getId(), 0), UTXOSet.encodeOutput(t2.getVout().get(0)))
+                .put("chainstate", UTXOSet.outpoint(cb1.getId(), 0), UTXOSet.encodeOutput(cb1.getVout().get(0))));
+        File file = new File(dir, "same-block.snapshot");
+        Bucket chainstate = content.getBucket("chainstate");
+        ChainstateSnapshot.write(file, b1, chainstate.Cursor(), chainstate.count());
+
+        Blockchain bc = track(Blockchain.fromSnapshot(new Db(), ChainstateSnapshot.read(file)));
+        assertTrue(bc.addBlock(genesis));
+        await(bc);
+        assertTrue(bc.isSnapshotInvalid());
+    }
+
+    @Test
+    public void restartKeepsThePendingSnapshot() throws Exception {
+        Blockchain src = source();
+        File file = new File(dir, "utxo.snapshot");
+        src.exportSnapshot(file);
+
+        String path = new File(dir, "db").getPath();
+        Db db = new Db(path);
+        Blockchain bc = Blockchain.fromSnapshot(db, ChainstateSnapshot.read(file));
+        bc.mineBlock(new Transaction[]{ChainFixture.coinbase(b)});
+        long balanceA = f.balance(bc, a), balanceB = f.balance(bc, b);
+        byte[] tip = bc.getTip();
+        bc.close();
+        db.close();
+
+        db = new Db(path);
+        bc = new Blockchain(db);
+        assertTrue(bc.isSnapshotPending());
+        assertArrayEquals(tip, bc.getTip());
+        assertEquals(balanceA, f.balance(bc, a));
+        assertEquals(balanceB, f.balance(bc, b));
+
+        for (Block block : history(src)) assertTrue(bc.addBlock(block));
+        await(bc);
+        assertFalse(bc.isSnapshotPending());
+        assertFalse(bc.isSnapshotInvalid());
+        bc.close();
+        db.close();
+    }
+
+    @Test
+    public void restartDoesNotRebuildTheChainstateBelowAPendingSnapshot() throws Exception {
+        Blockchain src = source();
+        File file = new File(dir, "utxo.snapshot");
+        src.exportSnapshot(file);
+
+        String path = new File(dir, "db").getPath();
+        Db db = new Db(path);
+        Blockchain bc = Blockchain.fromSnapshot(db, ChainstateSnapshot.read(file));
+        bc.close();
+        // the chainstate no longer says which block it is at, it would have to be rebuilt from the blocks
+        db.write(db.newBatch().delete("blocks", "c"));
+        long entries = db.getBucket("chainstate").count();
+        db.close();
+
+        db = new Db(path);
+        try {
+            new Blockchain(db);
+            fail("rebuilt a chainstate from a partial history");
+        } catch (IllegalStateException expected) {}
+        assertEquals("the imported chainstate is kept", entries, db.getBucket("chainstate").count());
+        db.close();
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null)
+            for (File c : children) delete(c);
+        f.delete();
+    }
+}
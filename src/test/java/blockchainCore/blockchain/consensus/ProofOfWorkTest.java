@@ -0,0 +1,100 @@
+package blockchainCore.blockchain.consensus;
+
+import blockchainCore.blockchain.Block;
+import blockchainCore.blockchain.ChainFixture;
+import blockchainCore.blockchain.transaction.Transaction;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ProofOfWorkTest {
+    private final ChainFixture f = new ChainFixture();
+
+    // a window taking exactly RETARGET_INTERVAL - 1 spacings keeps the target
+    private static final long WINDOW = ProofOfWork.TARGET_SPACING * (ProofOfWork.RETARGET_INTERVAL - 1);
+    private static final int BITS = 0x1d00ffff;
+
+    @Test
+    public void compactBits() {
+        BigInteger target = BigInteger.valueOf(0xffff).shiftLeft(8 * 26);
+        assertEquals(target, ProofOfWork.decodeBits(BITS));
+        assertEquals(BITS, ProofOfWork.encodeBits(target));
+        assertEquals(ProofOfWork.LIMIT_BITS, ProofOfWork.encodeBits(ProofOfWork.decodeBits(ProofOfWork.LIMIT_BITS)));
+
+        // targets of less than 3 bytes
+        assertEquals(BigInteger.valueOf(0x12), ProofOfWork.decodeBits(0x01120000));
+        assertEquals(0x01120000, ProofOfWork.encodeBits(BigInteger.valueOf(0x12)));
+        assertEquals(0x02123400, ProofOfWork.encodeBits(BigInteger.valueOf(0x1234)));
+
+        // a mantissa with the top bit set moves to the next exponent
+        assertEquals(0x02008000, ProofOfWork.encodeBits(BigInteger.valueOf(0x80)));
+        assertEquals(BigInteger.valueOf(0x80), ProofOfWork.decodeBits(0x02008000));
+        int bits = ProofOfWork.encodeBits(BigInteger.valueOf(0x80).shiftLeft(8 * 20));
+        assertEquals(0, bits & 0x800000);
+        assertEquals(BigInteger.valueOf(0x80).shiftLeft(8 * 20), ProofOfWork.decodeBits(bits));
+    }
+
+    @Test
+    public void retargetIsClamped() {
+        BigInteger target = ProofOfWork.decodeBits(BITS);
+        assertEquals(BITS, ProofOfWork.retarget(BITS, 0, WINDOW));
+        assertEquals(ProofOfWork.encodeBits(target.shiftRight(1)), ProofOfWork.retarget(BITS, 0, WINDOW / 2));
+
+        // at most 4 times harder or easier
+        assertEquals(ProofOfWork.encodeBits(target.shiftRight(2)), ProofOfWork.retarget(BITS, 0, 0));
+        assertEquals(ProofOfWork.encodeBits(target.shiftLeft(2)), ProofOfWork.retarget(BITS, 0, WINDOW * 100));
+
+        // never easier than the limit
+        assertEquals(ProofOfWork.LIMIT_BITS, ProofOfWork.retarget(ProofOfWork.LIMIT_BITS, 0, WINDOW * 2));
+    }
+
+    @Test
+    public void canFollow() {
+        BigInteger target = ProofOfWork.decodeBits(BITS);
+        int harder = ProofOfWork.encodeBits(target.shiftRight(1));
+
+        // between two retargets the bits do not change
+        assertTrue(ProofOfWork.canFollow(BITS, BITS, ProofOfWork.RETARGET_INTERVAL + 1));
+        assertFalse(ProofOfWork.canFollow(BITS, harder, ProofOfWork.RETARGET_INTERVAL + 1));
+
+        int height = 2 * ProofOfWork.RETARGET_INTERVAL;
+        assertTrue(ProofOfWork.canFollow(BITS, harder, height));
+        assertTrue(ProofOfWork.canFollow(BITS, ProofOfWork.encodeBits(target.shiftRight(2)), height));
+        assertTrue(ProofOfWork.canFollow(BITS, ProofOfWork.encodeBits(target.shiftLeft(2)), height));
+        assertFalse(ProofOfWork.canFollow(BITS, ProofOfWork.encodeBits(target.shiftRight(3)), height));
+        assertFalse(ProofOfWork.canFollow(BITS, ProofOfWork.encodeBits(target.shiftLeft(3)), height));
+        assertFalse(ProofOfWork.canFollow(ProofOfWork.LIMIT_BITS,
+                ProofOfWork.encodeBits(ProofOfWork.decodeBits(ProofOfWork.LIMIT_BITS).shiftLeft(1)), height));
+    }
+
+    private static Set<Thread> workerThreads() {
+        HashSet<Thread> workers = new HashSet<>();
+        for (Thread t : Thread.getAllStackTraces().keySet())
+            if (t.getName().equals("pow-worker") && t.isAlive()) workers.add(t);
+        return workers;
+    }
+
+    @Test
+    public void shutdownStopsTheWorkers() throws InterruptedException {
+        Set<Thread> before = workerThreads();
+        ProofOfWork pow = new ProofOfWork();
+        pow.setThreads(2);
+        Block block = new Block(new Transaction[]{ChainFixture.coinbase(f.newAddress())}, new byte[0], 0);
+        assertTrue(pow.mine(block));
+        assertTrue(ProofOfWork.Validate(block));
+
+        Set<Thread> started = workerThreads();
+        started.removeAll(before);
+        assertEquals(2, started.size());
+
+        pow.shutdown();
+        for (Thread t : started) {
+            t.join(5000);
+            assertFalse(t.isAlive());
+        }
+    }
+}
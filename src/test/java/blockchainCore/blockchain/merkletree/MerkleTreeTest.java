@@ -0,0 +1,98 @@
+package blockchainCore.blockchain.merkletree;
+
+import blockchainCore.utils.Utils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MerkleTreeTest {
+    private static List<byte[]> leaves(int n) {
+        ArrayList<byte[]> leaves = new ArrayList<>();
+        for (int i = 0; i < n; i++) leaves.add(Utils.sha256(("leaf " + i).getBytes()));
+        return leaves;
+    }
+
+    private static byte[] h(byte[] left, byte[] right) { return Utils.sha256Concat(left, right); }
+
+    // the definition, level by level, last node paired with itself
+    private static byte[] naiveRoot(List<byte[]> level) {
+        while (level.size() > 1) {
+            ArrayList<byte[]> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += 2)
+                next.add(h(level.get(i), i + 1 < level.size() ? level.get(i + 1) : level.get(i)));
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    @Test
+    public void smallTrees() {
+        List<byte[]> l = leaves(4);
+        assertArrayEquals(l.get(0), MerkleTree.root(l.subList(0, 1)));
+        assertArrayEquals(h(l.get(0), l.get(1)), MerkleTree.root(l.subList(0, 2)));
+        assertArrayEquals(h(h(l.get(0), l.get(1)), h(l.get(2), l.get(2))), MerkleTree.root(l.subList(0, 3)));
+        assertArrayEquals(h(h(l.get(0), l.get(1)), h(l.get(2), l.get(3))), MerkleTree.root(l));
+    }
+
+    @Test
+    public void proofsForOddAndEvenCounts() {
+        for (int n = 1; n <= 17; n++) {
+            List<byte[]> l = leaves(n);
+            MerkleTree tree = new MerkleTree(l);
+            assertEquals(n, tree.size());
+            assertArrayEquals("n=" + n, naiveRoot(l), tree.getRoot());
+
+            for (int i = 0; i < n; i++) {
+                byte[][] proof = tree.getProof(i);
+                assertTrue("n=" + n + " i=" + i, MerkleTree.verifyProof(l.get(i), i, proof, tree.getRoot()));
+                // another leaf, or the right leaf at another position, does not verify
+                assertFalse(MerkleTree.verifyProof(Utils.sha256("other".getBytes()), i, proof, tree.getRoot()));
+                if (n > 1) assertFalse(MerkleTree.verifyProof(l.get(i), (i + 1) % n, proof, tree.getRoot()));
+            }
+        }
+    }
+
+    @Test
+    public void lastOddLeafIsItsOwnSibling() {
+        List<byte[]> l = leaves(5);
+        MerkleTree tree = new MerkleTree(l);
+        byte[][] proof = tree.getProof(4);
+        assertArrayEquals(l.get(4), proof[0]);
+        assertTrue(MerkleTree.verifyProof(l.get(4), 4, proof, tree.getRoot()));
+    }
+
+    @Test
+    public void tamperedProofFails() {
+        List<byte[]> l = leaves(8);
+        MerkleTree tree = new MerkleTree(l);
+        byte[][] proof = tree.getProof(3);
+        proof[1] = Utils.sha256(proof[1]);
+        assertFalse(MerkleTree.verifyProof(l.get(3), 3, proof, tree.getRoot()));
+
+        // an index beyond the tree
+        assertFalse(MerkleTree.verifyProof(l.get(3), 3 + 8, tree.getProof(3), tree.getRoot()));
+    }
+
+    @Test
+    public void parallelLevelsMatchTheDefinition() {
+        // above the threshold the first levels are hashed on the common pool
+        List<byte[]> l = leaves(2 * MerkleTree.PARALLEL_THRESHOLD + 3);
+        MerkleTree tree = new MerkleTree(l);
+        assertArrayEquals(naiveRoot(l), tree.getRoot());
+        assertTrue(MerkleTree.verifyProof(l.get(l.size() - 1), l.size() - 1, tree.getProof(l.size() - 1), tree.getRoot()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noLeaves() {
+        new MerkleTree(Collections.emptyList());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void proofOutOfRange() {
+        new MerkleTree(leaves(3)).getProof(3);
+    }
+}
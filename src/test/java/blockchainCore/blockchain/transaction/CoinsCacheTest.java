@@ -0,0 +1,155 @@
+package blockchainCore.blockchain.transaction;
+
+import blockchainCore.DB.Db;
+import blockchainCore.DB.WriteBatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CoinsCacheTest {
+    private static final String UTXO = "chainstate";
+
+    private Db db;
+    private CoinsCache coins;
+
+    @Before
+    public void setUp() {
+        db = new Db();
+        coins = new CoinsCache(db);
+    }
+
+    private static byte[] txId(int i) {
+        byte[] id = new byte[32];
+        id[31] = (byte) i;
+        return id;
+    }
+
+    private static TxOutput out(int value) { return new TxOutput(value, new byte[20]); }
+
+    private boolean stored(int tx, int vout) { return db.getBucket(UTXO).get(UTXOSet.outpoint(txId(tx), vout)) != null; }
+
+    private void store(int tx, int vout, int value) {
+        db.write(db.newBatch().put(UTXO, UTXOSet.outpoint(txId(tx), vout), UTXOSet.encodeOutput(out(value))));
+    }
+
+    // flush and commit, like the chain does
+    private WriteBatch flush() {
+        WriteBatch b = db.newBatch();
+        coins.flush(b);
+        db.write(b);
+        coins.flushed();
+        return b;
+    }
+
+    @Test
+    public void freshOutputSpentBeforeFlushNeverReachesTheBucket() {
+        coins.add(txId(1), 0, out(10), true);
+        assertEquals(1, coins.getDirty());
+        coins.spend(txId(1), 0);
+        assertEquals(0, coins.getDirty());
+        assertEquals(0, coins.size());
+
+        assertTrue(flush().isEmpty());
+        assertFalse(stored(1, 0));
+    }
+
+    @Test
+    public void spentStoredOutputIsDeletedOnFlush() {
+        store(2, 0, 20);
+        assertEquals(20, coins.getOutput(db.newBatch(), txId(2), 0).getValue());
+        coins.spend(txId(2), 0);
+        assertNull(coins.getOutput(txId(2), 0));
+        assertTrue(stored(2, 0));
+
+        assertEquals(1, flush().size());
+        assertFalse(stored(2, 0));
+        assertEquals("spent entries leave the cache once written", 0, coins.size());
+    }
+
+    @Test
+    public void notFreshOutputSpentIsStillDeleted() {
+        // add without 'fresh' : the output may be in the bucket, e.g. restored by a disconnect
+        store(3, 0, 30);
+        coins.add(txId(3), 0, out(30));
+        coins.spend(txId(3), 0);
+        assertEquals(1, coins.getDirty());
+
+        flush();
+        assertFalse(stored(3, 0));
+    }
+
+    @Test
+    public void cacheKeepsServingUntilTheBatchIsCommitted() {
+        store(4, 0, 40);
+        coins.getOutput(db.newBatch(), txId(4), 0);
+        coins.spend(txId(4), 0);
+        coins.add(txId(5), 0, out(50), true);
+
+        WriteBatch b = db.newBatch();
+        coins.flush(b);
+        // batch built, not written : the bucket is behind, the cache is not
+        assertNull(coins.getOutput(txId(4), 0));
+        assertEquals(50, coins.getOutput(txId(5), 0).getValue());
+        assertEquals(2, coins.getDirty());
+
+        db.write(b);
+        coins.flushed();
+        assertEquals(0, coins.getDirty());
+        assertFalse(stored(4, 0));
+        assertTrue(stored(5, 0));
+        assertEquals(50, coins.getOutput(txId(5), 0).getValue());
+    }
+
+    @Test
+    public void changeAfterFlushStaysDirty() {
+        coins.add(txId(6), 0, out(60), true);
+        WriteBatch b = db.newBatch();
+        coins.flush(b);
+        coins.add(txId(6), 1, out(61), true);
+        coins.spend(txId(6), 0);
+        db.write(b);
+        coins.flushed();
+
+        assertTrue(stored(6, 0));
+        assertNull(coins.getOutput(txId(6), 0));
+        assertEquals(2, coins.getDirty());
+
+        flush();
+        assertFalse(stored(6, 0));
+        assertTrue(stored(6, 1));
+        assertEquals(0, coins.getDirty());
+    }
+
+    @Test
+    public void evictsOnlyCleanEntriesOverBudget() {
+        coins.setMaxBytes(1);
+        coins.add(txId(7), 0, out(70), true);
+        coins.add(txId(7), 1, out(71), true);
+        WriteBatch b = db.newBatch();
+        coins.flush(b);
+        coins.add(txId(8), 0, out(80), true); // after the flush, not in b
+        db.write(b);
+        coins.flushed();
+
+        assertEquals("the written entries are let go", 1, coins.size());
+        assertEquals(1, coins.getDirty());
+        assertEquals(70, coins.getOutput(txId(7), 0).getValue());
+        assertEquals(80, coins.getOutput(txId(8), 0).getValue());
+        assertFalse(stored(8, 0));
+
+        flush();
+        assertTrue(stored(8, 0));
+        assertEquals(0, coins.size());
+    }
+
+    @Test
+    public void readsWithoutBatchAreNotKept() {
+        store(9, 0, 90);
+        assertEquals(90, coins.getOutput(txId(9), 0).getValue());
+        assertEquals(0, coins.size());
+        assertEquals(90, coins.getOutput(db.newBatch(), txId(9), 0).getValue());
+        assertEquals(1, coins.size());
+        assertEquals(0, coins.getDirty());
+    }
+}